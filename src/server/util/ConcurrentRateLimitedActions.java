@@ -0,0 +1,272 @@
+package server.util;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe counterpart to {@link RateLimitedActions}, for rejecting floods on the network threads before they reach
+ * the tick. The limits behave the same, but time is read from the system clock rather than the tick clock, and the
+ * state is kept separately from RateLimitedActions.
+ * <p>
+ * Sliding-log limits lock only the identifier's own log, so calls for different identifiers never contend. Smoothed
+ * limits are a single compare-and-set on the identifier's theoretical arrival time.
+ * <p>
+ * Idle identifiers are otherwise only swept once a day, so anything keyed on untrusted input (IPs, names from packets)
+ * must set a {@link #setKeyLimit key limit}, or a flood of made-up identifiers grows the maps without bound.
+ */
+public class ConcurrentRateLimitedActions {
+
+    // Marks a cell that the pruner has taken out of the map; a caller that finds one retries with a fresh cell
+    private static final long RETIRED = Long.MIN_VALUE;
+
+    private static final ConcurrentHashMap<Object, LockedLog> actionLogs = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Object, AtomicLong> cellRates = new ConcurrentHashMap<>();
+
+    private static final long PRUNE_INTERVAL_MILLIS = 1000;
+    private static final Duration UNTRACKED_RETRY = Duration.ofSeconds(1);
+
+    private static volatile int maxTrackedKeys = Integer.MAX_VALUE;
+    private static volatile RateLimitedActions.OverflowPolicy overflowPolicy = RateLimitedActions.OverflowPolicy.FAIL_OPEN;
+    private static final AtomicLong nextPruneAt = new AtomicLong();
+    private static final LongAdder evictions = new LongAdder();
+    private static final LongAdder refusals = new LongAdder();
+
+    public static boolean processAction(Object identifier, int allowedActions, Duration expireAfter, Consumer<Integer> action, Consumer<Duration> onFail) {
+        long now = System.currentTimeMillis();
+        int remainingActions;
+        long retryAt;
+
+        while (true) {
+            LockedLog lockedLog = actionLogs.get(identifier);
+            if (lockedLog == null) {
+                if (!makeRoom(actionLogs, now)) {
+                    return refuseUntracked(onFail);
+                }
+                LockedLog created = new LockedLog(allowedActions);
+                lockedLog = actionLogs.putIfAbsent(identifier, created);
+                if (lockedLog == null) {
+                    lockedLog = created;
+                }
+            }
+
+            synchronized (lockedLog) {
+                if (lockedLog.retired) {
+                    continue;
+                }
+                RateLimitedActions.ActionLog actionLog = lockedLog.actionLog;
+                if (actionLog.capacity() != allowedActions) {
+                    actionLog.resize(allowedActions);
+                }
+                actionLog.prune(now);
+                remainingActions = allowedActions - actionLog.size;
+                if (remainingActions > 0) {
+                    actionLog.add(now + expireAfter.toMillis());
+                    retryAt = 0;
+                } else {
+                    retryAt = allowedActions <= 0 ? now : actionLog.oldest();
+                }
+            }
+            break;
+        }
+
+        // Callbacks run outside the lock
+        if (remainingActions > 0) {
+            action.accept(remainingActions - 1);
+            return true;
+        } else {
+            if (onFail != null) {
+                onFail.accept(Duration.ofMillis(Math.max(0, retryAt - now)));
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The thread-safe form of {@link RateLimitedActions#processSmoothedAction}.
+     */
+    public static boolean processSmoothedAction(Object identifier, int allowedActions, Duration per, Consumer<Integer> action, Consumer<Duration> onFail) {
+        long now = System.currentTimeMillis();
+        if (allowedActions <= 0) {
+            if (onFail != null) {
+                onFail.accept(Duration.ZERO);
+            }
+            return false;
+        }
+
+        long window = per.toMillis();
+        long emissionInterval = Math.max(1, window / allowedActions);
+
+        while (true) {
+            AtomicLong cell = cellRates.get(identifier);
+            if (cell == null) {
+                if (!makeRoom(cellRates, now)) {
+                    return refuseUntracked(onFail);
+                }
+                AtomicLong created = new AtomicLong();
+                cell = cellRates.putIfAbsent(identifier, created);
+                if (cell == null) {
+                    cell = created;
+                }
+            }
+
+            long theoreticalArrival = cell.get();
+            if (theoreticalArrival == RETIRED) {
+                cellRates.remove(identifier, cell);
+                continue;
+            }
+
+            long arrival = Math.max(theoreticalArrival, now) + emissionInterval;
+            long allowedAt = arrival - window;
+            if (now < allowedAt) {
+                if (onFail != null) {
+                    onFail.accept(Duration.ofMillis(allowedAt - now));
+                }
+                return false;
+            }
+            if (cell.compareAndSet(theoreticalArrival, arrival)) {
+                action.accept((int) ((now - allowedAt) / emissionInterval));
+                return true;
+            }
+        }
+    }
+
+    public static void resetActions(Object identifier) {
+        forget(identifier);
+    }
+
+    private static boolean forget(Object identifier) {
+        LockedLog lockedLog = actionLogs.remove(identifier);
+        if (lockedLog != null) {
+            synchronized (lockedLog) {
+                lockedLog.retired = true;
+            }
+        }
+        AtomicLong cell = cellRates.remove(identifier);
+        if (cell != null) {
+            cell.set(RETIRED);
+        }
+        return lockedLog != null || cell != null;
+    }
+
+    /*
+     * Key limit
+     */
+
+    /**
+     * Caps the number of identifiers tracked at once across both kinds of limit. At the cap, identifiers whose limits
+     * have expired are swept first, at most once a second so a flood can't make every call scan the maps. If that
+     * doesn't free a slot, {@link RateLimitedActions.OverflowPolicy#FAIL_OPEN} forgets an arbitrary identifier, most
+     * likely one of the flood's since they make up most of the map, and FAIL_CLOSED refuses the new identifier's action.
+     * There's no usage order to evict by here, so prefer FAIL_CLOSED where resetting a real player's limit matters.
+     * Threads adding identifiers at the same moment can each take the last slot, so the cap can be exceeded by up to
+     * the number of such threads. Pass {@link Integer#MAX_VALUE} to remove the cap.
+     */
+    public static void setKeyLimit(int maxTrackedKeys, RateLimitedActions.OverflowPolicy overflowPolicy) {
+        if (maxTrackedKeys <= 0) {
+            throw new IllegalArgumentException("Key limit must be positive: " + maxTrackedKeys);
+        }
+        ConcurrentRateLimitedActions.overflowPolicy = overflowPolicy;
+        ConcurrentRateLimitedActions.maxTrackedKeys = maxTrackedKeys;
+    }
+
+    /**
+     * @return The number of identifiers forgotten to make room for new ones
+     */
+    public static long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The number of actions refused because their identifier couldn't be tracked under FAIL_CLOSED
+     */
+    public static long refusalCount() {
+        return refusals.sum();
+    }
+
+    public static long size() {
+        return actionLogs.mappingCount() + cellRates.mappingCount();
+    }
+
+    private static boolean makeRoom(ConcurrentHashMap<Object, ?> map, long now) {
+        if (size() < maxTrackedKeys) {
+            return true;
+        }
+        long pruneAt = nextPruneAt.get();
+        if (now >= pruneAt && nextPruneAt.compareAndSet(pruneAt, now + PRUNE_INTERVAL_MILLIS)) {
+            pruneAll(now);
+            if (size() < maxTrackedKeys) {
+                return true;
+            }
+        }
+        if (overflowPolicy == RateLimitedActions.OverflowPolicy.FAIL_CLOSED) {
+            return false;
+        }
+        ConcurrentHashMap<Object, ?> evictFrom = map;
+        if (evictFrom.isEmpty()) {
+            evictFrom = map == actionLogs ? cellRates : actionLogs;
+        }
+        // Threads evicting at once all start from the same end of the map, so skip what another thread just removed
+        Iterator<Object> victims = evictFrom.keySet().iterator();
+        while (victims.hasNext() && size() >= maxTrackedKeys) {
+            if (forget(victims.next())) {
+                evictions.increment();
+            }
+        }
+        return true;
+    }
+
+    private static boolean refuseUntracked(Consumer<Duration> onFail) {
+        refusals.increment();
+        if (onFail != null) {
+            onFail.accept(UNTRACKED_RETRY);
+        }
+        return false;
+    }
+
+    /*
+     * Map cleaning
+     */
+
+    static {
+        // Both maps are safe to walk while the network threads use them, so this can stay off the tick
+        TaskScheduler.scheduleDailyQuietHours(
+            new TaskScheduler.TaskConfig().lane(TaskScheduler.Lane.WORKER).name("ConcurrentRateLimitedActions prune"),
+            ConcurrentRateLimitedActions::pruneAll
+        );
+    }
+
+    private static void pruneAll() {
+        pruneAll(System.currentTimeMillis());
+    }
+
+    private static void pruneAll(long now) {
+        actionLogs.forEach((identifier, lockedLog) -> {
+            synchronized (lockedLog) {
+                if (lockedLog.retired || !lockedLog.actionLog.isIdle(now)) {
+                    return;
+                }
+                lockedLog.retired = true;
+            }
+            actionLogs.remove(identifier, lockedLog);
+        });
+        cellRates.forEach((identifier, cell) -> {
+            long theoreticalArrival = cell.get();
+            if (theoreticalArrival != RETIRED && theoreticalArrival <= now && cell.compareAndSet(theoreticalArrival, RETIRED)) {
+                cellRates.remove(identifier, cell);
+            }
+        });
+    }
+
+    private static final class LockedLog {
+        private final RateLimitedActions.ActionLog actionLog;
+        private boolean retired;
+
+        private LockedLog(int capacity) {
+            this.actionLog = new RateLimitedActions.ActionLog(capacity);
+        }
+    }
+}
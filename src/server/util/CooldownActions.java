@@ -1,11 +1,25 @@
 package server.util;
 
+import server.Processing;
 import server.model.players.Player;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.function.Consumer;
 
 public class CooldownActions {
+
+    // Weak keys, so a player's table is freed with the player rather than waiting on any sweep
+    private static final WeakHashMap<Player, CooldownTable> cooldownTables = new WeakHashMap<>();
+    // Tables loaded from a snapshot, waiting for their player to log in
+    private static final HashMap<String, CooldownTable> restoredTables = new HashMap<>();
+
     public static boolean processAction(Object identifier, Duration duration, Runnable action, Consumer<Duration> onFail) {
         return RateLimitedActions.processAction(
             identifier,
@@ -22,4 +36,143 @@ public class CooldownActions {
             (remaining) -> c.sendMessage("You've done that too recently. Time remaining: <col=ff0000>" + TextUtils.formatMillisTime(remaining.toMillis()))
         );
     }
+
+    /*
+     * Typed cooldowns
+     */
+
+    public static boolean processAction(Player c, CooldownType type, Duration duration, Runnable action, Consumer<Duration> onFail) {
+        long now = Processing.currentInstant.toEpochMilli();
+        CooldownTable table = tableFor(c);
+        if (table.tryStart(type, now, duration.toMillis())) {
+            action.run();
+            return true;
+        }
+        if (onFail != null) {
+            onFail.accept(Duration.ofMillis(table.remaining(type, now)));
+        }
+        return false;
+    }
+
+    public static boolean processAction(Player c, CooldownType type, Duration duration, Runnable action) {
+        long now = Processing.currentInstant.toEpochMilli();
+        CooldownTable table = tableFor(c);
+        if (table.tryStart(type, now, duration.toMillis())) {
+            action.run();
+            return true;
+        }
+        c.sendMessage("You've done that too recently. Time remaining: <col=ff0000>" + TextUtils.formatMillisTime(table.remaining(type, now)));
+        return false;
+    }
+
+    public static Duration remaining(Player c, CooldownType type) {
+        return Duration.ofMillis(tableFor(c).remaining(type, Processing.currentInstant.toEpochMilli()));
+    }
+
+    public static void reset(Player c, CooldownType type) {
+        tableFor(c).reset(type);
+    }
+
+    // Every typed access goes through here, so a restored table is claimed before anything reads or changes it
+    private static CooldownTable tableFor(Player c) {
+        CooldownTable table = cooldownTables.get(c);
+        if (table == null) {
+            table = restoredTables.remove(c.playerName);
+            if (table == null) {
+                table = new CooldownTable();
+            }
+            cooldownTables.put(c, table);
+        }
+        return table;
+    }
+
+    /*
+     * Persistence
+     */
+
+    private static final int SNAPSHOT_MAGIC = 0x434F_4C31; // "COL1"
+
+    /**
+     * Saves every running typed cooldown by player name and type name, so ids can be renumbered between builds. Players
+     * restored earlier who haven't logged in since are carried over.
+     *
+     * @return The number of players saved
+     */
+    public static int snapshot(Path file) throws IOException {
+        long now = Processing.currentInstant.toEpochMilli();
+        List<CooldownType> types = CooldownType.values();
+        StateSnapshot.Writer writer = new StateSnapshot.Writer(SNAPSHOT_MAGIC);
+
+        HashMap<String, CooldownTable> tables = new HashMap<>(restoredTables);
+        cooldownTables.forEach((player, table) -> tables.put(player.playerName, table));
+        for (Map.Entry<String, CooldownTable> entry : tables.entrySet()) {
+            CooldownTable table = entry.getValue();
+            int running = 0;
+            for (CooldownType type : types) {
+                if (table.deadline(type) > now) {
+                    running++;
+                }
+            }
+            if (running == 0) {
+                continue;
+            }
+            writer.entries.writeInt(writer.intern(entry.getKey()));
+            writer.entries.writeInt(running);
+            for (CooldownType type : types) {
+                long deadline = table.deadline(type);
+                if (deadline > now) {
+                    writer.entries.writeInt(writer.intern(type.name()));
+                    writer.entries.writeLong(deadline);
+                }
+            }
+            writer.endEntry();
+        }
+        writer.writeTo(file);
+        return writer.entryCount();
+    }
+
+    /**
+     * Loads a file written by {@link #snapshot}. Each player's cooldowns are applied when they next use one. Cooldowns
+     * that have since ended, or whose type is no longer registered, are dropped.
+     *
+     * @return The number of players restored, or 0 if there's no snapshot
+     */
+    public static int restore(Path file) throws IOException {
+        StateSnapshot.Reader reader = StateSnapshot.Reader.open(file, SNAPSHOT_MAGIC);
+        if (reader == null) {
+            return 0;
+        }
+        long now = Processing.currentInstant.toEpochMilli();
+        ByteBuffer buffer = reader.buffer;
+        // Each type name is stored once in the string table, so look each one up once rather than once per player
+        CooldownType[] types = new CooldownType[reader.stringCount()];
+        boolean[] resolved = new boolean[types.length];
+        int restored = 0;
+        for (int i = 0; i < reader.entryCount; i++) {
+            String playerName = reader.string();
+            int running = buffer.getInt();
+            CooldownTable table = null;
+            for (int j = 0; j < running; j++) {
+                int typeIndex = reader.stringIndex();
+                if (!resolved[typeIndex]) {
+                    types[typeIndex] = CooldownType.forName(reader.string(typeIndex));
+                    resolved[typeIndex] = true;
+                }
+                CooldownType type = types[typeIndex];
+                long deadline = buffer.getLong();
+                if (type == null || deadline <= now) {
+                    continue;
+                }
+                if (table == null) {
+                    table = new CooldownTable();
+                }
+                table.setDeadline(type, deadline);
+            }
+            if (table != null) {
+                restoredTables.put(playerName, table);
+                restored++;
+            }
+        }
+        return restored;
+    }
 }
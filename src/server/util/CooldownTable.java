@@ -0,0 +1,69 @@
+package server.util;
+
+import java.util.Arrays;
+
+/**
+ * One player's cooldown deadlines, indexed by {@link CooldownType#id()}. A check is a single array read, and the whole
+ * table goes away with its owner.
+ */
+public final class CooldownTable {
+
+    private long[] deadlines;
+
+    public CooldownTable() {
+        this.deadlines = new long[CooldownType.count()];
+    }
+
+    /**
+     * Starts the cooldown if it isn't already running.
+     *
+     * @return Whether the cooldown was started
+     */
+    public boolean tryStart(CooldownType type, long now, long durationMillis) {
+        int id = type.id();
+        if (id >= deadlines.length) {
+            // Only happens for types registered after this table was created
+            deadlines = Arrays.copyOf(deadlines, CooldownType.count());
+        }
+        if (deadlines[id] > now) {
+            return false;
+        }
+        deadlines[id] = now + durationMillis;
+        return true;
+    }
+
+    /**
+     * @return The millis until the cooldown ends, or 0 if it isn't running
+     */
+    public long remaining(CooldownType type, long now) {
+        int id = type.id();
+        return id < deadlines.length ? Math.max(0, deadlines[id] - now) : 0;
+    }
+
+    /**
+     * @return The cooldown's end time in epoch millis, or 0 if it has never run
+     */
+    public long deadline(CooldownType type) {
+        int id = type.id();
+        return id < deadlines.length ? deadlines[id] : 0;
+    }
+
+    void setDeadline(CooldownType type, long deadline) {
+        int id = type.id();
+        if (id >= deadlines.length) {
+            deadlines = Arrays.copyOf(deadlines, CooldownType.count());
+        }
+        deadlines[id] = deadline;
+    }
+
+    public void reset(CooldownType type) {
+        int id = type.id();
+        if (id < deadlines.length) {
+            deadlines[id] = 0;
+        }
+    }
+
+    public void resetAll() {
+        Arrays.fill(deadlines, 0);
+    }
+}
@@ -0,0 +1,69 @@
+package server.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A kind of cooldown, such as eating or teleporting, registered once at startup. Each type gets a dense id that indexes
+ * straight into a player's {@link CooldownTable}.
+ */
+public final class CooldownType {
+
+    private static final List<CooldownType> registry = new ArrayList<>();
+
+    private final String name;
+    private final int id;
+
+    private CooldownType(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /**
+     * Types are meant to be held in static finals; registering on every call would grow every player's table.
+     */
+    public static synchronized CooldownType register(String name) {
+        for (CooldownType type : registry) {
+            if (type.name.equals(name)) {
+                throw new IllegalArgumentException("Cooldown type already registered: " + name);
+            }
+        }
+        CooldownType type = new CooldownType(name, registry.size());
+        registry.add(type);
+        return type;
+    }
+
+    /**
+     * @return The registered type with the given name, or null if there isn't one
+     */
+    public static synchronized CooldownType forName(String name) {
+        for (CooldownType type : registry) {
+            if (type.name.equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    public static synchronized int count() {
+        return registry.size();
+    }
+
+    public static synchronized List<CooldownType> values() {
+        return Collections.unmodifiableList(new ArrayList<>(registry));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
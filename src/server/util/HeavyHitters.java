@@ -0,0 +1,137 @@
+package server.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Approximate top-K counter over an unbounded stream of keys, using the Space-Saving algorithm in fixed memory.
+ * <p>
+ * Up to {@code capacity} keys are counted. A new key arriving when every counter is taken replaces the key with the
+ * smallest count and inherits that count as its possible overestimate, so any key seen more than
+ * {@code total / capacity} times is guaranteed to be tracked. Recording is O(log capacity).
+ */
+public class HeavyHitters {
+
+    public record Entry(Object key, long count, long error) {
+        /**
+         * @return The lowest the true count can be
+         */
+        public long guaranteedCount() {
+            return count - error;
+        }
+    }
+
+    private final HashMap<Object, Integer> positions;
+    // A min-heap on counts, so the counter to replace is always at the root
+    private final Object[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private int size;
+    private long total;
+
+    public HeavyHitters(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.positions = new HashMap<>(capacity * 2);
+        this.keys = new Object[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+    }
+
+    public void record(Object key) {
+        total++;
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position]++;
+            siftDown(position);
+        } else if (size < keys.length) {
+            keys[size] = key;
+            counts[size] = 1;
+            errors[size] = 0;
+            positions.put(key, size);
+            siftUp(size++);
+        } else {
+            positions.remove(keys[0]);
+            keys[0] = key;
+            errors[0] = counts[0];
+            counts[0]++;
+            positions.put(key, 0);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return The most frequent keys, heaviest first
+     */
+    public List<Entry> top(int limit) {
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(keys[i], counts[i], errors[i]));
+        }
+        entries.sort(Comparator.comparingLong(Entry::count).reversed());
+        return entries.size() > limit ? entries.subList(0, limit) : entries;
+    }
+
+    /**
+     * @return The number of keys recorded, including those no longer tracked
+     */
+    public long total() {
+        return total;
+    }
+
+    public void reset() {
+        positions.clear();
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+        }
+        size = 0;
+        total = 0;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (counts[parent] <= counts[index]) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index;
+            int left = index * 2 + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        Object key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+        long error = errors[a];
+        errors[a] = errors[b];
+        errors[b] = error;
+        positions.put(keys[a], a);
+        positions.put(keys[b], b);
+    }
+}
@@ -1,52 +1,446 @@
 package server.util;
 
 import server.Processing;
+import server.XLogger;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
+import java.util.logging.Level;
 
 public class RateLimitedActions {
 
-    private static final HashMap<Object, List<Instant>> actionDataMap = new HashMap<>();
+    // Insertion ordered, so the eviction scan starts from the identifiers that have been tracked longest
+    private static final LinkedHashMap<Object, LimiterState> actionDataMap = new LinkedHashMap<>();
+
+    // Each tracked identifier sits in this wheel at roughly the time its state will have fully expired
+    private static final TimingWheel<LimiterState> expiryWheel = new TimingWheel<>(0);
+    private static final ArrayDeque<LimiterState> expiring = new ArrayDeque<>();
+    private static final Consumer<LimiterState> collectExpiring = expiring::add;
+    private static final int EXPIRY_BATCH = 1024;
+
+    /**
+     * What to do with a new identifier when the key limit is reached.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Evict roughly the least recently used identifier, even if its limit is still running; whoever it belonged
+         * to starts over with a full allowance
+         */
+        FAIL_OPEN,
+        /**
+         * Only evict identifiers whose limits have fully expired, and otherwise refuse the new identifier's action until
+         * room frees up, so no tracked limit is ever reset early
+         */
+        FAIL_CLOSED
+    }
+
+    private static final int EVICTION_SCAN = 8;
+    private static final Duration UNTRACKED_RETRY = Duration.ofSeconds(1);
+
+    private static int maxTrackedKeys = Integer.MAX_VALUE;
+    private static OverflowPolicy overflowPolicy = OverflowPolicy.FAIL_OPEN;
+    private static long evictions;
+    private static long refusals;
 
     public static boolean processAction(Object identifier, int allowedActions, Duration expireAfter, Consumer<Integer> action, Consumer<Duration> onFail) {
-        List<Instant> actionDataList = actionDataMap.computeIfAbsent(identifier, key -> new ArrayList<>());
+        long now = Processing.currentInstant.toEpochMilli();
+
+        ActionLog actionLog;
+        LimiterState current = actionDataMap.get(identifier);
+        if (current instanceof ActionLog existing) {
+            actionLog = existing;
+            actionLog.referenced = true;
+            if (actionLog.capacity() != allowedActions) {
+                actionLog.resize(allowedActions);
+            }
+        } else {
+            if (current == null && !makeRoom(now)) {
+                return refuseUntracked(onFail);
+            }
+            actionLog = new ActionLog(allowedActions);
+            track(identifier, actionLog);
+        }
 
         // Prune expired actions
-        pruneActions(actionDataList);
+        actionLog.prune(now);
 
-        int remainingActions = allowedActions - actionDataList.size();
+        int remainingActions = allowedActions - actionLog.size;
 
         if (remainingActions > 0) {
-            actionDataList.add(Processing.currentInstant.plus(expireAfter));
+            actionLog.add(now + expireAfter.toMillis());
+            armExpiry(actionLog);
             action.accept(remainingActions - 1); // Pass remainingActions - 1 to the consumer
             return true;
         } else {
+            armExpiry(actionLog);
             if (onFail != null) {
-                Duration timeUntilAction = calculateTimeUntilAction(actionDataList, allowedActions);
+                Duration timeUntilAction = calculateTimeUntilAction(actionLog, allowedActions, now);
                 onFail.accept(timeUntilAction);
             }
             return false;
         }
     }
 
+    /**
+     * Allows the same average rate as {@link #processAction}, including bursts of up to {@code allowedActions}, but
+     * uses the Generic Cell Rate Algorithm: an identifier's whole history is a single long, its theoretical arrival
+     * time. Allowance refills steadily at one action per {@code per / allowedActions}, rather than all at once as
+     * individual actions expire, so use this where an exact sliding log isn't needed.
+     */
+    public static boolean processSmoothedAction(Object identifier, int allowedActions, Duration per, Consumer<Integer> action, Consumer<Duration> onFail) {
+        long now = Processing.currentInstant.toEpochMilli();
+        if (allowedActions <= 0) {
+            if (onFail != null) {
+                onFail.accept(Duration.ZERO);
+            }
+            return false;
+        }
+
+        CellRateState state;
+        LimiterState current = actionDataMap.get(identifier);
+        if (current instanceof CellRateState existing) {
+            state = existing;
+            state.referenced = true;
+        } else {
+            if (current == null && !makeRoom(now)) {
+                return refuseUntracked(onFail);
+            }
+            state = new CellRateState();
+            track(identifier, state);
+        }
+
+        long window = per.toMillis();
+        long emissionInterval = Math.max(1, window / allowedActions);
+        long arrival = Math.max(state.theoreticalArrival, now) + emissionInterval;
+        long allowedAt = arrival - window;
+
+        if (now >= allowedAt) {
+            state.theoreticalArrival = arrival;
+            armExpiry(state);
+            action.accept((int) ((now - allowedAt) / emissionInterval));
+            return true;
+        } else {
+            armExpiry(state);
+            if (onFail != null) {
+                onFail.accept(Duration.ofMillis(allowedAt - now));
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Checks every window of the limit against one shared history of the identifier's actions, admitting the action
+     * only if all of them allow it. On failure the retry-after is that of the most restrictive window.
+     */
+    public static boolean processAction(Object identifier, CompositeLimit limit, Consumer<Integer> action, Consumer<Duration> onFail) {
+        long now = Processing.currentInstant.toEpochMilli();
+
+        WindowedLog log;
+        LimiterState current = actionDataMap.get(identifier);
+        if (current instanceof WindowedLog existing) {
+            log = existing;
+            log.referenced = true;
+            log.longestWindow = limit.longestWindow;
+            if (log.capacity() != limit.largestCount) {
+                log.resize(limit.largestCount);
+            }
+        } else {
+            if (current == null && !makeRoom(now)) {
+                return refuseUntracked(onFail);
+            }
+            log = new WindowedLog(limit.largestCount, limit.longestWindow);
+            track(identifier, log);
+        }
+
+        log.prune(now);
+
+        long retryAt = 0;
+        int remainingActions = Integer.MAX_VALUE;
+        for (int i = 0; i < limit.windowCount; i++) {
+            int count = limit.counts[i];
+            long window = limit.windows[i];
+            int inWindow = log.countSince(now - window);
+            if (inWindow >= count) {
+                // The action that has to leave this window is the count-th newest
+                retryAt = Math.max(retryAt, log.newest(count - 1) + window);
+            }
+            remainingActions = Math.min(remainingActions, count - inWindow);
+        }
+
+        armExpiry(log);
+        if (remainingActions > 0) {
+            log.add(now);
+            action.accept(remainingActions - 1);
+            return true;
+        } else {
+            if (onFail != null) {
+                onFail.accept(Duration.ofMillis(Math.max(0, retryAt - now)));
+            }
+            return false;
+        }
+    }
+
     public static void resetActions(Object identifier) {
-        actionDataMap.remove(identifier);
+        LimiterState state = actionDataMap.remove(identifier);
+        if (state != null) {
+            expiryWheel.remove(state);
+        }
+    }
+
+    /**
+     * @return The number of identifiers currently being tracked
+     */
+    public static int size() {
+        return actionDataMap.size();
+    }
+
+    /*
+     * Rejection tracking
+     */
+
+    private static final int TRACKED_OFFENDERS = 64;
+    private static final HashMap<String, HeavyHitters> rejectionsByType = new HashMap<>();
+
+    /**
+     * As {@link #processAction(Object, int, Duration, Consumer, Consumer)}, also counting rejections under the action
+     * type so the heaviest offenders can be reported.
+     */
+    public static boolean processAction(String actionType, Object identifier, int allowedActions, Duration expireAfter, Consumer<Integer> action, Consumer<Duration> onFail) {
+        if (processAction(identifier, allowedActions, expireAfter, action, onFail)) {
+            return true;
+        }
+        recordRejection(actionType, identifier);
+        return false;
+    }
+
+    public static boolean processAction(String actionType, Object identifier, CompositeLimit limit, Consumer<Integer> action, Consumer<Duration> onFail) {
+        if (processAction(identifier, limit, action, onFail)) {
+            return true;
+        }
+        recordRejection(actionType, identifier);
+        return false;
+    }
+
+    public static boolean processSmoothedAction(String actionType, Object identifier, int allowedActions, Duration per, Consumer<Integer> action, Consumer<Duration> onFail) {
+        if (processSmoothedAction(identifier, allowedActions, per, action, onFail)) {
+            return true;
+        }
+        recordRejection(actionType, identifier);
+        return false;
+    }
+
+    private static void recordRejection(String actionType, Object identifier) {
+        HeavyHitters rejections = rejectionsByType.get(actionType);
+        if (rejections == null) {
+            rejections = new HeavyHitters(TRACKED_OFFENDERS);
+            rejectionsByType.put(actionType, rejections);
+        }
+        rejections.record(identifier);
+    }
+
+    /**
+     * @return The identifiers rejected most often for the action type since the last reset, heaviest first. Counts
+     * are approximate, but never under the true count.
+     */
+    public static List<HeavyHitters.Entry> topRejected(String actionType, int limit) {
+        HeavyHitters rejections = rejectionsByType.get(actionType);
+        return rejections == null ? List.of() : rejections.top(limit);
+    }
+
+    public static String rejectionReport(int limit) {
+        StringBuilder report = new StringBuilder("Most rejected identifiers:\n");
+        rejectionsByType.forEach((actionType, rejections) -> {
+            report.append(String.format("%s (%d rejections)%n", actionType, rejections.total()));
+            for (HeavyHitters.Entry entry : rejections.top(limit)) {
+                // Space-Saving only ever overcounts, so an uncertain count is shown as the range it must lie in
+                String count = entry.error() == 0 ? Long.toString(entry.count()) : entry.guaranteedCount() + ".." + entry.count();
+                report.append(String.format("    %-40s %21s%n", entry.key(), count));
+            }
+        });
+        return report.toString();
+    }
+
+    public static void printRejectionReport(int limit) {
+        XLogger.getInstance().log(Level.INFO, rejectionReport(limit));
+    }
+
+    public static void resetRejections() {
+        rejectionsByType.clear();
+    }
+
+    /*
+     * Persistence
+     */
+
+    private static final int SNAPSHOT_MAGIC = 0x524C_5331; // "RLS1"
+    private static final byte ACTION_LOG = 0;
+    private static final byte CELL_RATE = 1;
+    private static final byte WINDOWED_LOG = 2;
+
+    /**
+     * Saves every unexpired limit keyed by a String identifier, so long limits survive a restart. Other identifiers
+     * don't mean anything to the next process and are left out.
+     *
+     * @return The number of identifiers saved
+     */
+    public static int snapshot(Path file) throws IOException {
+        long now = Processing.currentInstant.toEpochMilli();
+        StateSnapshot.Writer writer = new StateSnapshot.Writer(SNAPSHOT_MAGIC);
+        for (Map.Entry<Object, LimiterState> entry : actionDataMap.entrySet()) {
+            if (entry.getKey() instanceof String identifier && !entry.getValue().isIdle(now)) {
+                writer.entries.writeInt(writer.intern(identifier));
+                entry.getValue().write(writer.entries);
+                writer.endEntry();
+            }
+        }
+        writer.writeTo(file);
+        return writer.entryCount();
+    }
+
+    /**
+     * Loads a file written by {@link #snapshot}, replacing the state of any identifier it holds. Limits that expired
+     * while the server was down are skipped, and new identifiers go through the key limit like any other.
+     *
+     * @return The number of identifiers restored, or 0 if there's no snapshot
+     */
+    public static int restore(Path file) throws IOException {
+        StateSnapshot.Reader reader = StateSnapshot.Reader.open(file, SNAPSHOT_MAGIC);
+        if (reader == null) {
+            return 0;
+        }
+        long now = Processing.currentInstant.toEpochMilli();
+        ByteBuffer buffer = reader.buffer;
+        int restored = 0;
+        for (int i = 0; i < reader.entryCount; i++) {
+            String identifier = reader.string();
+            byte type = buffer.get();
+            LimiterState state = switch (type) {
+                case ACTION_LOG -> ActionLog.read(buffer);
+                case CELL_RATE -> CellRateState.read(buffer);
+                case WINDOWED_LOG -> WindowedLog.read(buffer);
+                default -> throw new IOException("Unknown limiter state type " + type + " in " + file);
+            };
+            if (!state.isIdle(now)) {
+                if (!actionDataMap.containsKey(identifier) && !makeRoom(now)) {
+                    continue;
+                }
+                track(identifier, state);
+                armExpiry(state);
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    /*
+     * Key limit
+     */
+
+    /**
+     * Caps the number of identifiers tracked at once, so callers keyed on untrusted input (IPs, names from packets)
+     * can't grow the map without bound. Pass {@link Integer#MAX_VALUE} to remove the cap.
+     */
+    public static void setKeyLimit(int maxTrackedKeys, OverflowPolicy overflowPolicy) {
+        if (maxTrackedKeys <= 0) {
+            throw new IllegalArgumentException("Key limit must be positive: " + maxTrackedKeys);
+        }
+        RateLimitedActions.maxTrackedKeys = maxTrackedKeys;
+        RateLimitedActions.overflowPolicy = overflowPolicy;
     }
 
-    private static Duration calculateTimeUntilAction(List<Instant> actionDataList, int limit) {
-        if (actionDataList.size() - limit < 0 || limit < 0){
+    /**
+     * @return The number of identifiers forgotten to make room for new ones
+     */
+    public static long evictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return The number of actions refused because their identifier couldn't be tracked under {@link OverflowPolicy#FAIL_CLOSED}
+     */
+    public static long refusalCount() {
+        return refusals;
+    }
+
+    // Approximate LRU by second chance: the map is in insertion order, so the head is the candidate that has waited
+    // longest. Each use sets a referenced bit; a candidate that was used since it last came round has its bit cleared and
+    // goes back to the tail, and the first one that wasn't is evicted. Each trip to the tail pays for a use, so this is
+    // constant time on average however hot the head is. Under FAIL_CLOSED only states that no longer limit anything are
+    // evicted (a new state starts unreferenced), and a bounded number of candidates is rotated past before refusing.
+    private static boolean makeRoom(long now) {
+        boolean failClosed = overflowPolicy == OverflowPolicy.FAIL_CLOSED;
+        int rotated = 0;
+        while (actionDataMap.size() >= maxTrackedKeys) {
+            if (failClosed && rotated >= EVICTION_SCAN) {
+                return false;
+            }
+            LimiterState candidate = actionDataMap.values().iterator().next();
+            actionDataMap.remove(candidate.identifier);
+            if (failClosed ? candidate.isIdle(now) : !candidate.referenced) {
+                expiryWheel.remove(candidate);
+                evictions++;
+            } else {
+                candidate.referenced = false;
+                actionDataMap.put(candidate.identifier, candidate);
+                rotated++;
+            }
+        }
+        return true;
+    }
+
+    private static boolean refuseUntracked(Consumer<Duration> onFail) {
+        refusals++;
+        if (onFail != null) {
+            onFail.accept(UNTRACKED_RETRY);
+        }
+        return false;
+    }
+
+    private static Duration calculateTimeUntilAction(ActionLog actionLog, int limit, long now) {
+        if (actionLog.size - limit < 0 || limit <= 0){
             return Duration.ZERO;
         }
-        Instant instant = actionDataList.stream()
-            .sorted(Instant::compareTo)
-            .toList()
-            .get(actionDataList.size()-limit);
-        return Duration.between(Processing.currentInstant, instant);
+        // The log never holds more than the limit, so the oldest entry is the one that has to expire next
+        return Duration.ofMillis(actionLog.oldest() - now);
+    }
+
+    /**
+     * Several sliding windows applied to one action, for example 3 per 10 seconds and 20 per minute. Build these once and
+     * keep them in static finals.
+     */
+    public static final class CompositeLimit {
+        private int[] counts = new int[2];
+        private long[] windows = new long[2];
+        private int windowCount;
+        private int largestCount;
+        private long longestWindow;
+
+        public CompositeLimit allow(int allowedActions, Duration per) {
+            if (allowedActions <= 0) {
+                throw new IllegalArgumentException("Allowed actions must be positive: " + allowedActions);
+            }
+            if (windowCount == counts.length) {
+                counts = Arrays.copyOf(counts, windowCount * 2);
+                windows = Arrays.copyOf(windows, windowCount * 2);
+            }
+            counts[windowCount] = allowedActions;
+            windows[windowCount] = per.toMillis();
+            windowCount++;
+            largestCount = Math.max(largestCount, allowedActions);
+            longestWindow = Math.max(longestWindow, per.toMillis());
+            return this;
+        }
     }
 
     /*
@@ -54,16 +448,288 @@ public class RateLimitedActions {
      */
 
     static {
-        TaskScheduler.scheduleDailyQuietHours(RateLimitedActions::pruneAll);
+        TaskScheduler.scheduleTask(
+            Processing.utcDateTime,
+            Duration.ofSeconds(1),
+            new TaskScheduler.TaskConfig().name("RateLimitedActions expiry").priority(TaskScheduler.Priority.LOW),
+            RateLimitedActions::expireIdle
+        );
+    }
+
+    private static void track(Object identifier, LimiterState state) {
+        state.identifier = identifier;
+        LimiterState replaced = actionDataMap.put(identifier, state);
+        if (replaced != null) {
+            expiryWheel.remove(replaced);
+        }
+    }
+
+    // Wheel entries are only refreshed lazily: a state that has been used since it was armed is simply re-armed when its
+    // old time comes up, so the hot path never has to move it
+    private static void armExpiry(LimiterState state) {
+        if (!state.isScheduled()) {
+            state.deadline = state.idleAt();
+            expiryWheel.add(state);
+        }
+    }
+
+    // Forgets identifiers whose limits have fully expired, a bounded batch at a time, so memory follows the number of
+    // active identifiers without ever sweeping the whole map
+    private static void expireIdle() {
+        long now = Processing.currentInstant.toEpochMilli();
+        expiryWheel.advance(now, collectExpiring);
+
+        LimiterState state;
+        for (int i = 0; i < EXPIRY_BATCH && (state = expiring.poll()) != null; i++) {
+            if (actionDataMap.get(state.identifier) != state) {
+                continue; // reset or replaced since it was armed
+            }
+            if (state.isIdle(now)) {
+                actionDataMap.remove(state.identifier);
+                expiryWheel.remove(state);
+            } else {
+                armExpiry(state);
+            }
+        }
+    }
+
+    abstract static class LimiterState extends TimingWheel.Node {
+        private Object identifier;
+        boolean referenced;
+
+        /**
+         * @return Whether the state has fully expired and forgetting it would change nothing
+         */
+        abstract boolean isIdle(long now);
+
+        /**
+         * @return The time from which {@link #isIdle(long)} will be true, unless the identifier is used again
+         */
+        abstract long idleAt();
+
+        /**
+         * Writes a type tag followed by the state, in the form the matching {@code read} expects.
+         */
+        abstract void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * The expiry times of one identifier's recent actions, oldest first, in a ring buffer sized to the action limit.
+     * Admitting, pruning and finding the next expiry are all O(1) and allocation-free.
+     */
+    static final class ActionLog extends LimiterState {
+        private long[] expiries;
+        private int head;
+        int size;
+
+        ActionLog(int capacity) {
+            this.expiries = new long[Math.max(1, capacity)];
+        }
+
+        int capacity() {
+            return expiries.length;
+        }
+
+        long oldest() {
+            return expiries[head];
+        }
+
+        @Override
+        boolean isIdle(long now) {
+            prune(now);
+            return size == 0;
+        }
+
+        @Override
+        long idleAt() {
+            // Entries are pruned once they're strictly before now
+            return size == 0 ? 0 : expiries[(head + size - 1) % expiries.length] + 1;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(ACTION_LOG);
+            out.writeInt(expiries.length);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(expiries[(head + i) % expiries.length]);
+            }
+        }
+
+        private static ActionLog read(ByteBuffer in) {
+            ActionLog log = new ActionLog(in.getInt());
+            int size = in.getInt();
+            for (int i = 0; i < size; i++) {
+                log.add(in.getLong());
+            }
+            return log;
+        }
+
+        void prune(long now) {
+            while (size > 0 && expiries[head] < now) {
+                head = (head + 1) % expiries.length;
+                size--;
+            }
+        }
+
+        void add(long expiry) {
+            int index = (head + size) % expiries.length;
+            // Callers using different windows for one identifier can add out of order; keep the log sorted regardless
+            for (int shifted = 0; shifted < size; shifted++) {
+                int previous = (index - 1 + expiries.length) % expiries.length;
+                if (expiries[previous] <= expiry) {
+                    break;
+                }
+                expiries[index] = expiries[previous];
+                index = previous;
+            }
+            expiries[index] = expiry;
+            size++;
+        }
+
+        // Keeps the newest entries that still fit, which are the only ones a smaller limit would ever look at
+        void resize(int capacity) {
+            long[] resized = new long[Math.max(1, capacity)];
+            int kept = Math.min(size, resized.length);
+            for (int i = 0; i < kept; i++) {
+                resized[i] = expiries[(head + size - kept + i) % expiries.length];
+            }
+            expiries = resized;
+            head = 0;
+            size = kept;
+        }
     }
 
-    private static void pruneAll(){
-        actionDataMap.values().forEach(RateLimitedActions::pruneActions);
-        actionDataMap.entrySet().removeIf(entry -> entry.getValue().size() == 0);
+    /**
+     * The times of one identifier's recent actions, oldest first, kept long enough for the longest window of a
+     * {@link CompositeLimit} and no more than its largest count.
+     */
+    private static final class WindowedLog extends LimiterState {
+        private long[] times;
+        private int head;
+        private int size;
+        private long longestWindow;
+
+        private WindowedLog(int capacity, long longestWindow) {
+            this.times = new long[Math.max(1, capacity)];
+            this.longestWindow = longestWindow;
+        }
+
+        private int capacity() {
+            return times.length;
+        }
+
+        /**
+         * @return The time of the action {@code age} places before the newest
+         */
+        private long newest(int age) {
+            return times[(head + size - 1 - age) % times.length];
+        }
+
+        // Matches ActionLog: an action counts for a window until its time plus the window is strictly before now
+        private void prune(long now) {
+            while (size > 0 && times[head] + longestWindow < now) {
+                head = (head + 1) % times.length;
+                size--;
+            }
+        }
+
+        private int countSince(long from) {
+            // Binary search for the first action at or after from
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[(head + mid) % times.length] < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return size - low;
+        }
+
+        private void add(long time) {
+            if (size > 0) {
+                // Stay sorted even if the clock steps back
+                time = Math.max(time, newest(0));
+            }
+            if (size == times.length) {
+                // Only actions outside every window's count can be overwritten
+                head = (head + 1) % times.length;
+                size--;
+            }
+            times[(head + size) % times.length] = time;
+            size++;
+        }
+
+        private void resize(int capacity) {
+            long[] resized = new long[Math.max(1, capacity)];
+            int kept = Math.min(size, resized.length);
+            for (int i = 0; i < kept; i++) {
+                resized[i] = times[(head + size - kept + i) % times.length];
+            }
+            times = resized;
+            head = 0;
+            size = kept;
+        }
+
+        @Override
+        boolean isIdle(long now) {
+            prune(now);
+            return size == 0;
+        }
+
+        @Override
+        long idleAt() {
+            return size == 0 ? 0 : newest(0) + longestWindow + 1;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(WINDOWED_LOG);
+            out.writeInt(times.length);
+            out.writeLong(longestWindow);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(times[(head + i) % times.length]);
+            }
+        }
+
+        private static WindowedLog read(ByteBuffer in) {
+            WindowedLog log = new WindowedLog(in.getInt(), in.getLong());
+            int size = in.getInt();
+            for (int i = 0; i < size; i++) {
+                log.add(in.getLong());
+            }
+            return log;
+        }
     }
 
-    private static void pruneActions(List<Instant> data){
-        data.removeIf(instant -> instant.isBefore(Processing.currentInstant));
+    private static final class CellRateState extends LimiterState {
+        private long theoreticalArrival;
+
+        @Override
+        boolean isIdle(long now) {
+            return theoreticalArrival <= now;
+        }
+
+        @Override
+        long idleAt() {
+            return theoreticalArrival;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(CELL_RATE);
+            out.writeLong(theoreticalArrival);
+        }
+
+        private static CellRateState read(ByteBuffer in) {
+            CellRateState state = new CellRateState();
+            state.theoreticalArrival = in.getLong();
+            return state;
+        }
     }
 
     /*
@@ -0,0 +1,237 @@
+package server.util;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Smoothed rate limits shared by every process on the host that opens the same file, so a player hopping between
+ * worlds keeps their limits. The file is a fixed open-addressed table of (key hash, theoretical arrival) pairs, updated
+ * with compare-and-set directly on the mapped memory.
+ * <p>
+ * Identifiers are matched by a 64-bit hash of their string form, so they must mean the same thing in every process,
+ * e.g. a player name or IP rather than an object. If a key can't find a slot the action is allowed.
+ */
+public class SharedRateLimitedActions {
+
+    private static final long MAGIC = 0x524C_5348_4152_4431L; // "RLSHARD1"
+    private static final int HEADER_BYTES = 16;
+    private static final int SLOT_BYTES = 16;
+    private static final int MAX_PROBES = 16;
+    private static final long EMPTY = 0;
+    private static final long HEADER_WAIT_NANOS = Duration.ofSeconds(5).toNanos();
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer buffer;
+    private final int slotMask;
+
+    private SharedRateLimitedActions(MappedByteBuffer buffer, int slots) {
+        this.buffer = buffer;
+        this.slotMask = slots - 1;
+    }
+
+    /**
+     * Maps the table, creating the file if this is the first process to open it. Every process must agree on the
+     * slot count.
+     *
+     * @param slots A power of two, comfortably above the number of identifiers expected to be limited at once
+     */
+    public static SharedRateLimitedActions open(Path file, int slots) throws IOException {
+        if (slots <= 0 || Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("Slot count must be a power of two: " + slots);
+        }
+        long bytes = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel closes
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        }
+
+        // A fresh file is all zeroes; whichever process gets here first writes the header
+        if (LONGS.compareAndSet(buffer, 8, 0L, (long) slots)) {
+            LONGS.setVolatile(buffer, 0, MAGIC);
+        } else {
+            long existingSlots = (long) LONGS.getVolatile(buffer, 8);
+            if (existingSlots != slots) {
+                throw new IllegalStateException(file + " holds " + existingSlots + " slots, not " + slots);
+            }
+            long giveUpAt = System.nanoTime() + HEADER_WAIT_NANOS;
+            while ((long) LONGS.getVolatile(buffer, 0) != MAGIC) {
+                // The creating process is between its two header writes, unless it died there
+                if (System.nanoTime() - giveUpAt > 0) {
+                    throw new IllegalStateException(file + " has a half-written header; the process creating it may have "
+                        + "died, so delete the file if no other process has it open");
+                }
+                Thread.onSpinWait();
+            }
+        }
+        return new SharedRateLimitedActions(buffer, slots);
+    }
+
+    /**
+     * The cross-process form of {@link RateLimitedActions#processSmoothedAction}, timed by the system clock.
+     */
+    public boolean processSmoothedAction(Object identifier, int allowedActions, Duration per, Consumer<Integer> action, Consumer<Duration> onFail) {
+        long now = System.currentTimeMillis();
+        if (allowedActions <= 0) {
+            if (onFail != null) {
+                onFail.accept(Duration.ZERO);
+            }
+            return false;
+        }
+
+        long window = per.toMillis();
+        long emissionInterval = Math.max(1, window / allowedActions);
+
+        int offset = findSlot(hash(identifier), now);
+        if (offset < 0) {
+            action.accept(allowedActions - 1); // Table full: fail open
+            return true;
+        }
+
+        int arrivalOffset = offset + 8;
+        while (true) {
+            long theoreticalArrival = (long) LONGS.getVolatile(buffer, arrivalOffset);
+            long arrival = Math.max(theoreticalArrival, now) + emissionInterval;
+            long allowedAt = arrival - window;
+            if (now < allowedAt) {
+                if (onFail != null) {
+                    onFail.accept(Duration.ofMillis(allowedAt - now));
+                }
+                return false;
+            }
+            if (LONGS.compareAndSet(buffer, arrivalOffset, theoreticalArrival, arrival)) {
+                action.accept((int) ((now - allowedAt) / emissionInterval));
+                return true;
+            }
+        }
+    }
+
+    public void resetActions(Object identifier) {
+        long key = hash(identifier);
+        int slot = (int) mix(key) & slotMask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int offset = offsetOf((slot + probe) & slotMask);
+            long existing = (long) LONGS.getVolatile(buffer, offset);
+            if (existing == key) {
+                LONGS.setVolatile(buffer, offset + 8, 0L);
+                return;
+            }
+            if (existing == EMPTY) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The byte offset of the key's slot, claiming one if needed, or -1 if every probed slot is in use
+     */
+    private int findSlot(long key, long now) {
+        int slot = (int) mix(key) & slotMask;
+        int reusable = -1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int offset = offsetOf((slot + probe) & slotMask);
+            long existing = (long) LONGS.getVolatile(buffer, offset);
+            if (existing == key) {
+                return offset;
+            }
+            if (existing == EMPTY) {
+                if (LONGS.compareAndSet(buffer, offset, EMPTY, key)) {
+                    return offset;
+                }
+                if ((long) LONGS.getVolatile(buffer, offset) == key) {
+                    return offset; // Another process claimed it for the same key
+                }
+                continue;
+            }
+            if (reusable < 0 && (long) LONGS.getVolatile(buffer, offset + 8) <= now) {
+                reusable = offset;
+            }
+        }
+
+        // Take over a slot whose limit has fully expired. A racing update for the old key can leave a slightly stale
+        // arrival time behind, which only ever makes the new key stricter for one window.
+        if (reusable >= 0) {
+            long existing = (long) LONGS.getVolatile(buffer, reusable);
+            if (LONGS.compareAndSet(buffer, reusable, existing, key)) {
+                return reusable;
+            }
+        }
+        return -1;
+    }
+
+    private static int offsetOf(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    // FNV-1a over the UTF-8 bytes: unlike hashCode, it's the same in every process and JVM version. The bytes are
+    // encoded on the fly, the same way String.getBytes would, so hashing a name doesn't allocate.
+    private static long hash(Object identifier) {
+        CharSequence chars = identifier instanceof CharSequence sequence ? sequence : String.valueOf(identifier);
+        long hash = 0xcbf29ce484222325L;
+        int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                hash = fnv(hash, c);
+            } else if (c < 0x800) {
+                hash = fnv(hash, 0xc0 | c >> 6);
+                hash = fnv(hash, 0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                hash = fnv(hash, 0xf0 | codePoint >> 18);
+                hash = fnv(hash, 0x80 | codePoint >> 12 & 0x3f);
+                hash = fnv(hash, 0x80 | codePoint >> 6 & 0x3f);
+                hash = fnv(hash, 0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired, which getBytes replaces with '?'
+                hash = fnv(hash, '?');
+            } else {
+                hash = fnv(hash, 0xe0 | c >> 12);
+                hash = fnv(hash, 0x80 | c >> 6 & 0x3f);
+                hash = fnv(hash, 0x80 | c & 0x3f);
+            }
+        }
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static long fnv(long hash, int b) {
+        return (hash ^ b) * 0x100000001b3L;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        return hash ^ (hash >>> 33);
+    }
+
+    /*
+     * Example
+     */
+    public static void main(String[] args) throws IOException {
+        // Run this in two terminals at once; the second shares the first's allowance
+        SharedRateLimitedActions limiter = SharedRateLimitedActions.open(Path.of(System.getProperty("java.io.tmpdir"), "rate-limits.bin"), 1 << 16);
+        for (int i = 0; i < 20; i++) {
+            limiter.processSmoothedAction(
+                "player123",
+                3, // 3 actions...
+                Duration.ofSeconds(10), // ...every 10 seconds
+                remaining -> System.out.println("Action performed. Remaining actions: " + remaining),
+                retry -> System.out.println("Action rate-limited. Time remaining: " + retry.toMillis() + "ms")
+            );
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
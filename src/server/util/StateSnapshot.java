@@ -0,0 +1,141 @@
+package server.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The binary layout shared by the limiter and cooldown snapshots: a header, a table of every distinct string, then the
+ * entries, which refer to strings by index. Everything is big-endian primitives.
+ */
+final class StateSnapshot {
+
+    private static final int VERSION = 1;
+
+    private StateSnapshot() {
+    }
+
+    static final class Writer {
+        private final int magic;
+        private final HashMap<String, Integer> stringIds = new HashMap<>();
+        private final ArrayList<String> strings = new ArrayList<>();
+        private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream(1 << 16);
+        final DataOutputStream entries = new DataOutputStream(entryBytes);
+        private int entryCount;
+
+        Writer(int magic) {
+            this.magic = magic;
+        }
+
+        int intern(String string) {
+            Integer id = stringIds.get(string);
+            if (id == null) {
+                id = strings.size();
+                strings.add(string);
+                stringIds.put(string, id);
+            }
+            return id;
+        }
+
+        void endEntry() {
+            entryCount++;
+        }
+
+        int entryCount() {
+            return entryCount;
+        }
+
+        /**
+         * Writes the whole snapshot in one sequential pass to a temporary file, then moves it over the target, so a
+         * crash mid-write never leaves a torn snapshot behind.
+         */
+        void writeTo(Path file) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(magic);
+                out.writeInt(VERSION);
+                out.writeInt(strings.size());
+                for (String string : strings) {
+                    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                out.writeInt(entryCount);
+                entryBytes.writeTo(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    static final class Reader {
+        final ByteBuffer buffer;
+        final int entryCount;
+        private final String[] strings;
+
+        private Reader(ByteBuffer buffer, int entryCount, String[] strings) {
+            this.buffer = buffer;
+            this.entryCount = entryCount;
+            this.strings = strings;
+        }
+
+        /**
+         * @return The snapshot positioned at its first entry, or null if the file doesn't exist
+         */
+        static Reader open(Path file, int magic) throws IOException {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.remaining() < 8 || buffer.getInt() != magic) {
+                throw new IOException(file + " is not a snapshot of this kind");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has unsupported snapshot version " + version);
+            }
+            String[] strings = new String[buffer.getInt()];
+            byte[] scratch = new byte[64];
+            for (int i = 0; i < strings.length; i++) {
+                int length = buffer.getInt();
+                if (length > scratch.length) {
+                    scratch = new byte[length];
+                }
+                buffer.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            return new Reader(buffer, buffer.getInt(), strings);
+        }
+
+        String string() {
+            return strings[buffer.getInt()];
+        }
+
+        /**
+         * Reads a string reference without looking it up, for callers that cache something per distinct string.
+         */
+        int stringIndex() {
+            return buffer.getInt();
+        }
+
+        String string(int index) {
+            return strings[index];
+        }
+
+        int stringCount() {
+            return strings.length;
+        }
+    }
+}
@@ -2,81 +2,422 @@ package server.util;
 
 import server.Processing;
 import server.XLogger;
+import server.util.benchmark.LatencyHistogram;
 
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalAdjusters;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 public class TaskScheduler {
-    private static final LinkedList<ScheduledTask> scheduledTasks = new LinkedList<>();
+    private static final TimingWheel<ScheduledTask> scheduledTasks = new TimingWheel<>(0);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ArrayDeque<ScheduledTask>[] readyTasks = new ArrayDeque[Priority.values().length];
+    private static final Consumer<ScheduledTask> collectDue = TaskScheduler::markReady;
+    private static int readyCount = 0;
+
+    // Cancelled tasks still sitting in the wheel; they're dropped when they come due, or all at once by compaction
+    private static int cancelledTasks = 0;
+    private static final int COMPACTION_THRESHOLD = 64;
+
+    // Keyed by task name, or by action class for unnamed tasks, so tasks created from the same call site share one entry
+    private static final HashMap<String, TaskMetrics> taskMetrics = new HashMap<>();
+    private static long slowTaskThresholdNanos = Long.MAX_VALUE;
+
+    private static long tickBudgetNanos = Long.MAX_VALUE;
+    private static long deferredTaskCount = 0;
+    private static long budgetOverrunCount = 0;
+
+    static {
+        for (int i = 0; i < readyTasks.length; i++) {
+            readyTasks[i] = new ArrayDeque<>();
+        }
+    }
+
+    private static final ExecutorService workerExecutor = createWorkerExecutor();
+    // Lock-free inbox of commands for the tick thread. Any thread may add to it, only process() drains it, so the wheel
+    // and ready queues are only ever touched from the tick thread.
+    private static final ConcurrentLinkedQueue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Where a scheduled task runs. TICK tasks run inline inside {@link #process()}. WORKER tasks are handed off to a
+     * background executor so they can't stall the tick; they must not touch game state directly, and should post any
+     * results back with {@link #runOnTick(Runnable)}.
+     */
+    public enum Lane {
+        TICK,
+        WORKER
+    }
+
+    /**
+     * What to do about runs that were missed entirely, either because the base time was already in the past at
+     * registration, or because a stalled tick or GC pause left a task late by at least one full interval.
+     * <ul>
+     *     <li>FIRE_ONCE: run once to cover all of them, then resume the regular cadence</li>
+     *     <li>FIRE_ALL: run every missed occurrence, at most one per tick, until caught up</li>
+     *     <li>SKIP: at registration, drop them and start at the next future occurrence. A task that falls behind while
+     *     running still runs once for the occurrence that is due, as tasks always have, and drops the rest</li>
+     * </ul>
+     * SKIP is the default, which matches how tasks have always been registered and run.
+     */
+    public enum MissedFirePolicy {
+        FIRE_ONCE,
+        FIRE_ALL,
+        SKIP
+    }
+
+    /**
+     * The order due tasks run in within a tick. CRITICAL tasks always run on the tick they come due; the rest stop
+     * once the tick budget is spent and are carried over to the next tick.
+     */
+    public enum Priority {
+        CRITICAL,
+        HIGH,
+        NORMAL,
+        LOW
+    }
 
     public static final ZoneId usEast = ZoneId.of("America/New_York");
     public static final ZoneId usWest = ZoneId.of("America/Los_Angeles");
     public static final ZoneId belgium = ZoneId.of("Europe/Brussels");
 
-    public static void scheduleTask(ZonedDateTime baseDateTime, Duration runEvery, Runnable task) {
-        ScheduledTask newRecord = new ScheduledTask(runEvery, task, baseDateTime);
-        while (newRecord.scheduledFor().isBefore(Processing.utcDateTime)){
-            newRecord = newRecord.reschedule();
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+    private static final ConcurrentHashMap<ZoneId, ZoneClock> zoneClocks = new ConcurrentHashMap<>();
+
+    static {
+        for (ZoneId zone : new ZoneId[]{usEast, usWest, belgium}) {
+            zoneClocks.put(zone, new ZoneClock(zone));
+        }
+    }
+
+    /**
+     * Tasks that repeat in whole days from a base time in a region zone are calendar tasks: they keep the same local
+     * time of day through DST changes, rather than drifting by the offset change. Everything else repeats at a fixed
+     * interval.
+     */
+    private static ZoneClock calendarZone(ZonedDateTime baseDateTime, long runEvery) {
+        ZoneId zone = baseDateTime.getZone();
+        if (runEvery % DAY_MILLIS != 0 || zone.getRules().isFixedOffset()) {
+            return null;
+        }
+        return zoneClocks.computeIfAbsent(zone, ZoneClock::new);
+    }
+
+    public static ScheduledTask scheduleTask(ZonedDateTime baseDateTime, Duration runEvery, Runnable task) {
+        return scheduleTask(baseDateTime, runEvery, Lane.TICK, task);
+    }
+
+    public static ScheduledTask scheduleTask(ZonedDateTime baseDateTime, Duration runEvery, Lane lane, Runnable task) {
+        return scheduleTask(baseDateTime, runEvery, new TaskConfig().lane(lane), task);
+    }
+
+    public static ScheduledTask scheduleTask(ZonedDateTime baseDateTime, Duration runEvery, TaskConfig config, Runnable task) {
+        // Deadlines are whole milliseconds, so anything shorter would round down to an interval of 0
+        if (runEvery.toMillis() <= 0) {
+            throw new IllegalArgumentException("Scheduled tasks must run at an interval of at least 1ms: " + runEvery);
         }
-        scheduledTasks.add(newRecord);
+        long runEveryMillis = runEvery.toMillis();
+        ScheduledTask newRecord = new ScheduledTask(runEveryMillis, calendarZone(baseDateTime, runEveryMillis), config, task, baseDateTime);
+        inbox.add(newRecord::arm);
+        return newRecord;
     }
 
-    public static void scheduleTask(String timeString, ZoneId timezone, Duration runEvery, Runnable task) {
+    public static ScheduledTask scheduleTask(String timeString, ZoneId timezone, Duration runEvery, Runnable task) {
+        return scheduleTask(timeString, timezone, runEvery, Lane.TICK, task);
+    }
+
+    public static ScheduledTask scheduleTask(String timeString, ZoneId timezone, Duration runEvery, Lane lane, Runnable task) {
+        return scheduleTask(timeString, timezone, runEvery, new TaskConfig().lane(lane), task);
+    }
+
+    public static ScheduledTask scheduleTask(String timeString, ZoneId timezone, Duration runEvery, TaskConfig config, Runnable task) {
         LocalTime time = parseTimeString(timeString);
         ZonedDateTime baseDateTime = ZonedDateTime.now(timezone)
-            .with(time)
-            .truncatedTo(ChronoUnit.DAYS);
-        scheduleTask(baseDateTime, runEvery, task);
+            .truncatedTo(ChronoUnit.DAYS)
+            .with(time);
+        return scheduleTask(baseDateTime, runEvery, config, task);
+    }
+
+    private static final AtomicInteger dailyQuietCount = new AtomicInteger();
+    public static ScheduledTask scheduleDailyQuietHours(Runnable task){
+        return scheduleDailyQuietHours(Lane.TICK, task);
     }
 
-    private static int dailyQuietCount = 0;
-    public static void scheduleDailyQuietHours(Runnable task){
+    public static ScheduledTask scheduleDailyQuietHours(Lane lane, Runnable task){
+        return scheduleDailyQuietHours(new TaskConfig().lane(lane), task);
+    }
+
+    public static ScheduledTask scheduleDailyQuietHours(TaskConfig config, Runnable task){
         ZonedDateTime midnight = Processing.utcDateTime
             .withZoneSameLocal(usWest)
             .truncatedTo(ChronoUnit.DAYS)
-            .plus(Duration.ofMinutes(dailyQuietCount++));
+            .plus(Duration.ofMinutes(dailyQuietCount.getAndIncrement()));
 
-        scheduleTask(midnight, Duration.ofDays(1), task);
+        return scheduleTask(midnight, Duration.ofDays(1), config, task);
     }
 
 
-    private static int weeklyQuietCount = 0;
+    private static final AtomicInteger weeklyQuietCount = new AtomicInteger();
     // Midnight on Tuesday (Tuesday 12:00 AM)
-    public static void scheduleWeeklyQuietHours(Runnable task){
+    public static ScheduledTask scheduleWeeklyQuietHours(Runnable task){
+        return scheduleWeeklyQuietHours(Lane.TICK, task);
+    }
+
+    public static ScheduledTask scheduleWeeklyQuietHours(Lane lane, Runnable task){
+        return scheduleWeeklyQuietHours(new TaskConfig().lane(lane), task);
+    }
+
+    public static ScheduledTask scheduleWeeklyQuietHours(TaskConfig config, Runnable task){
         ZonedDateTime nextMondayMidnight = Processing.utcDateTime
             .withZoneSameInstant(usWest)
             .with(TemporalAdjusters.next(DayOfWeek.TUESDAY))
             .truncatedTo(ChronoUnit.DAYS)
             .with(LocalTime.MIDNIGHT)
-            .plus(Duration.ofMinutes(weeklyQuietCount++));
+            .plus(Duration.ofMinutes(weeklyQuietCount.getAndIncrement()));
+
+        return scheduleTask(nextMondayMidnight, Duration.ofDays(7), config, task);
+    }
 
-        scheduleTask(nextMondayMidnight, Duration.ofDays(7), task);
+    /**
+     * Queues {@code action} to run on the tick thread at the start of the next {@link #process()}. Safe to call from
+     * any thread; this is how WORKER lane tasks hand their results back to game state.
+     */
+    public static void runOnTick(Runnable action) {
+        inbox.add(action);
     }
 
+    /**
+     * Runs due tasks. Scheduling and handle calls made since the last call, from any thread, take effect at the start
+     * of this call; everything else here must only be called from the tick thread.
+     */
     public static void process() {
-        LinkedList<ScheduledTask> newTasks = new LinkedList<>();
-
-        Iterator<ScheduledTask> iterator = scheduledTasks.iterator();
-        while (iterator.hasNext()) {
-            ScheduledTask task = iterator.next();
-            if (task.scheduledFor().isBefore(Processing.utcDateTime)) {
-                iterator.remove();
-                newTasks.add(task.reschedule());
-                try {
-                    task.action().run();
-                } catch (Exception e) {
-                    XLogger.getInstance().log(Level.SEVERE, "Error processing scheduled task", e);
+        long startTime = System.nanoTime();
+
+        Runnable command;
+        while ((command = inbox.poll()) != null) {
+            try {
+                command.run();
+            } catch (Exception e) {
+                XLogger.getInstance().log(Level.SEVERE, "Error processing scheduled task command", e);
+            }
+        }
+
+        scheduledTasks.advance(toEpochMillis(Processing.utcDateTime), collectDue);
+        if (readyCount == 0) {
+            return;
+        }
+
+        for (ArrayDeque<ScheduledTask> queue : readyTasks) {
+            ScheduledTask task;
+            while ((task = queue.peek()) != null) {
+                long elapsed = System.nanoTime() - startTime;
+                if (task.priority != Priority.CRITICAL && elapsed >= tickBudgetNanos) {
+                    // Out of budget; everything still queued waits for the next tick
+                    deferredTaskCount += readyCount;
+                    if (elapsed > tickBudgetNanos) {
+                        budgetOverrunCount++;
+                    }
+                    return;
+                }
+                queue.poll();
+                readyCount--;
+                task.ready = false;
+                if (task.cancelled || task.paused) {
+                    // Paused tasks are parked outside the wheel until resume() puts them back
+                    continue;
+                }
+                if (task.deadline > scheduledTasks.currentTime()) {
+                    // Rescheduled while it was waiting for budget
+                    scheduledTasks.add(task);
+                    continue;
                 }
+                fire(task);
             }
         }
 
-        scheduledTasks.addAll(newTasks);
+        if (System.nanoTime() - startTime > tickBudgetNanos) {
+            budgetOverrunCount++;
+        }
+    }
+
+    private static void markReady(ScheduledTask task) {
+        if (task.cancelled) {
+            if (task.tombstone) {
+                cancelledTasks--;
+            }
+            return;
+        }
+        task.ready = true;
+        readyTasks[task.priority.ordinal()].add(task);
+        readyCount++;
+    }
+
+    private static void fire(ScheduledTask task) {
+        long lagMillis = scheduledTasks.currentTime() - task.deadline;
+        task.advanceDeadline(scheduledTasks.currentTime());
+        scheduledTasks.add(task);
+        if (task.lane == Lane.WORKER) {
+            dispatchToWorker(task, lagMillis);
+        } else {
+            task.metrics.record(runTask(task), lagMillis);
+        }
+    }
+
+    /*
+     * Metrics
+     */
+
+    /**
+     * Logs a warning naming any task whose single run takes longer than the threshold.
+     */
+    public static void setSlowTaskThreshold(Duration threshold) {
+        slowTaskThresholdNanos = threshold == null ? Long.MAX_VALUE : threshold.toNanos();
+    }
+
+    public static List<TaskMetrics> getTaskMetrics() {
+        return new ArrayList<>(taskMetrics.values());
+    }
+
+    /**
+     * @return A table of the tasks with the longest worst-case run times, slowest first
+     */
+    public static String slowTaskReport(int limit) {
+        StringBuilder report = new StringBuilder("Slowest scheduled tasks:\n");
+        report.append(String.format("%-60s %8s %8s %10s %10s %10s %10s %10s%n",
+            "Task", "Runs", "Failed", "p50 ms", "p99 ms", "Max ms", "p99 lag ms", "Max lag ms"));
+        taskMetrics.values().stream()
+            .sorted(Comparator.comparingLong((TaskMetrics metrics) -> metrics.executionNanos.max()).reversed())
+            .limit(limit)
+            .forEach(metrics -> report.append(String.format("%-60s %8d %8d %10.3f %10.3f %10.3f %10d %10d%n",
+                metrics.name,
+                metrics.runs(),
+                metrics.failures,
+                metrics.executionNanos.percentile(50) / 1e6,
+                metrics.executionNanos.percentile(99) / 1e6,
+                metrics.executionNanos.max() / 1e6,
+                metrics.lagMillis.percentile(99),
+                metrics.lagMillis.max()
+            )));
+        return report.toString();
+    }
+
+    public static void printSlowTaskReport(int limit) {
+        XLogger.getInstance().log(Level.INFO, slowTaskReport(limit));
+    }
+
+    /*
+     * Tick budget
+     */
+
+    /**
+     * Caps how long {@link #process()} spends running due tasks each tick. Non-critical tasks left over when the budget
+     * runs out stay queued, in priority order, for the next tick.
+     */
+    public static void setTickBudget(Duration budget) {
+        tickBudgetNanos = budget == null ? Long.MAX_VALUE : budget.toNanos();
+    }
+
+    /**
+     * @return The total number of times a due task was held over to a later tick because the budget ran out
+     */
+    public static long getDeferredTaskCount() {
+        return deferredTaskCount;
+    }
+
+    /**
+     * @return The number of ticks in which {@link #process()} ran past its budget, e.g. because of critical or slow tasks
+     */
+    public static long getBudgetOverrunCount() {
+        return budgetOverrunCount;
+    }
+
+    private static void taskCancelled(ScheduledTask task) {
+        if (!task.isScheduled()) {
+            return;
+        }
+        task.tombstone = true;
+        cancelledTasks++;
+        // Sweep the tombstones out once they make up half the wheel, so the sweep cost is amortized over the cancels
+        if (cancelledTasks > COMPACTION_THRESHOLD && cancelledTasks * 2 > scheduledTasks.size()) {
+            scheduledTasks.forEach(scheduled -> {
+                if (scheduled.tombstone) {
+                    scheduledTasks.remove(scheduled);
+                }
+            });
+            cancelledTasks = 0;
+        }
+    }
+
+    /**
+     * @return The execution time in nanoseconds, or -1 if the task threw
+     */
+    private static long runTask(ScheduledTask task) {
+        long startTime = System.nanoTime();
+        try {
+            task.action().run();
+        } catch (Exception e) {
+            XLogger.getInstance().log(Level.SEVERE, "Error processing scheduled task " + task.metrics.name, e);
+            return -1;
+        }
+        long executionTime = System.nanoTime() - startTime;
+        if (executionTime > slowTaskThresholdNanos) {
+            XLogger.getInstance().log(Level.WARNING, "Scheduled task " + task.metrics.name + " took "
+                + executionTime / 1_000_000 + "ms on the " + task.lane + " lane");
+        }
+        return executionTime;
+    }
+
+    private static void dispatchToWorker(ScheduledTask task, long lagMillis) {
+        // Never let a slow worker task pile up copies of itself
+        if (task.running) {
+            XLogger.getInstance().log(Level.WARNING, "Skipping scheduled task " + task.metrics.name + "; its previous run is still in progress");
+            return;
+        }
+        task.running = true;
+        workerExecutor.execute(() -> {
+            try {
+                long executionTime = runTask(task);
+                inbox.add(() -> task.metrics.record(executionTime, lagMillis));
+            } finally {
+                task.running = false;
+            }
+        });
+    }
+
+    private static ExecutorService createWorkerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Virtual threads need Java 21; otherwise fall back to a cached pool of daemon threads
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "TaskScheduler-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static long toEpochMillis(ZonedDateTime dateTime) {
+        return dateTime.toEpochSecond() * 1000 + dateTime.getNano() / 1_000_000;
+    }
+
+    private static long toLocalMillis(ZonedDateTime dateTime) {
+        return dateTime.toLocalDateTime().toEpochSecond(ZoneOffset.UTC) * 1000 + dateTime.getNano() / 1_000_000;
     }
 
     private static LocalTime parseTimeString(String timeString) throws DateTimeParseException {
@@ -84,9 +425,366 @@ public class TaskScheduler {
         return LocalTime.parse(timeString, formatter);
     }
 
-    public record ScheduledTask(Duration runEvery, Runnable action, ZonedDateTime scheduledFor) {
-        public ScheduledTask reschedule(){
-            return new ScheduledTask(runEvery, action, scheduledFor.plus(runEvery));
+    public static final class ScheduledTask extends TimingWheel.Node {
+        private long runEvery;
+        private ZoneClock zoneClock; // set for calendar tasks only
+        // Occurrences are counted from the base rather than chained from the last deadline, so a calendar task that
+        // was moved by a DST gap goes back to its usual time of day the day after
+        private long base; // local wall-clock millis for calendar tasks, epoch millis otherwise
+        private long occurrence; // the number of intervals from the base to the deadline
+        private final Lane lane;
+        private final Priority priority;
+        private final MissedFirePolicy missedFirePolicy;
+        private final Runnable action;
+        private final String name;
+        private TaskMetrics metrics;
+        private volatile boolean running;
+        private boolean ready;
+        private volatile boolean cancelled;
+        private boolean tombstone; // cancelled, and counted in cancelledTasks while still in the wheel
+        private volatile boolean paused;
+
+        private ScheduledTask(long runEvery, ZoneClock zoneClock, TaskConfig config, Runnable action, ZonedDateTime baseDateTime) {
+            this.runEvery = runEvery;
+            this.zoneClock = zoneClock;
+            this.base = zoneClock != null ? toLocalMillis(baseDateTime) : toEpochMillis(baseDateTime);
+            this.lane = config.lane;
+            this.priority = config.priority;
+            this.missedFirePolicy = config.missedFirePolicy;
+            this.action = action;
+            this.name = config.name;
+            this.deadline = toEpochMillis(baseDateTime);
+        }
+
+        public Duration runEvery() {
+            return Duration.ofMillis(runEvery);
+        }
+
+        public Lane lane() {
+            return lane;
+        }
+
+        public Priority priority() {
+            return priority;
+        }
+
+        public Runnable action() {
+            return action;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public ZonedDateTime scheduledFor() {
+            return Instant.ofEpochMilli(deadline).atZone(ZoneOffset.UTC);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+
+        /**
+         * Stops the task from ever running again. Safe to call from any thread, and takes effect immediately; the task
+         * is left in place as a tombstone and dropped when it next comes due, so this is O(1).
+         */
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            inbox.add(() -> taskCancelled(this));
+        }
+
+        /**
+         * Stops the task from running until {@link #resume()} is called. Any runs that would have happened in the
+         * meantime are skipped. Safe to call from any thread, and takes effect immediately.
+         */
+        public void pause() {
+            paused = true;
+        }
+
+        /**
+         * Lets the task run again from its next future occurrence. Takes effect immediately like {@link #pause()}, so the
+         * last of any sequence of calls wins.
+         */
+        public void resume() {
+            paused = false;
+            inbox.add(this::applyResume);
+        }
+
+        public void reschedule(ZonedDateTime baseDateTime) {
+            reschedule(baseDateTime, Duration.ofMillis(runEvery));
+        }
+
+        /**
+         * Moves the task onto a new base time and interval, applying its missed-fire policy as if it were newly
+         * registered.
+         */
+        public void reschedule(ZonedDateTime baseDateTime, Duration runEvery) {
+            // Deadlines are whole milliseconds, so anything shorter would round down to an interval of 0
+            if (runEvery.toMillis() <= 0) {
+                throw new IllegalArgumentException("Scheduled tasks must run at an interval of at least 1ms: " + runEvery);
+            }
+            long baseMillis = toEpochMillis(baseDateTime);
+            long runEveryMillis = runEvery.toMillis();
+            ZoneClock zoneClock = calendarZone(baseDateTime, runEveryMillis);
+            long base = zoneClock != null ? toLocalMillis(baseDateTime) : baseMillis;
+            inbox.add(() -> applyReschedule(baseMillis, base, runEveryMillis, zoneClock));
+        }
+
+        /*
+         * Commands, run on the tick thread from the inbox
+         */
+
+        private void arm() {
+            if (cancelled) {
+                return;
+            }
+            // Lambdas only have their generated class name, which is why built-in jobs always set TaskConfig.name()
+            String key = name != null ? name : action.getClass().getName();
+            metrics = taskMetrics.computeIfAbsent(key, TaskMetrics::new);
+            catchUp(toEpochMillis(Processing.utcDateTime), missedFirePolicy);
+            scheduledTasks.add(this);
+        }
+
+        // Puts a task parked while paused back on the wheel, unless it was paused again before this ran
+        private void applyResume() {
+            if (paused || cancelled) {
+                return;
+            }
+            if (!isScheduled() && !ready) {
+                catchUp(toEpochMillis(Processing.utcDateTime), MissedFirePolicy.SKIP);
+                scheduledTasks.add(this);
+            }
+        }
+
+        private void applyReschedule(long baseMillis, long base, long runEveryMillis, ZoneClock zoneClock) {
+            if (cancelled) {
+                return;
+            }
+            boolean wasScheduled = scheduledTasks.remove(this);
+            this.runEvery = runEveryMillis;
+            this.zoneClock = zoneClock;
+            this.base = base;
+            this.occurrence = 0;
+            this.deadline = baseMillis;
+            catchUp(toEpochMillis(Processing.utcDateTime), missedFirePolicy);
+            // A task waiting in the ready queue or parked by pause() picks up its new deadline from there
+            if (wasScheduled) {
+                scheduledTasks.add(this);
+            }
+        }
+
+        // Moves a newly registered task's deadline past any occurrences that are already over
+        private void catchUp(long now, MissedFirePolicy missedFirePolicy) {
+            if (deadline >= now) {
+                return;
+            }
+            switch (missedFirePolicy) {
+                case SKIP -> moveToNextOccurrence(now - 1);
+                case FIRE_ONCE -> moveToLatestOccurrence(now);
+                case FIRE_ALL -> {} // start from the first missed occurrence
+            }
+        }
+
+        // Sets the deadline for the next run once this one has come due; the due run itself always goes ahead
+        private void advanceDeadline(long now) {
+            long following = occurrenceAt(occurrence + 1);
+            boolean missed = now >= following;
+            if (!missed || missedFirePolicy == MissedFirePolicy.FIRE_ALL) {
+                // A FIRE_ALL backlog lands in the past, so the wheel holds it for the next tick
+                occurrence++;
+                deadline = following;
+                return;
+            }
+            // FIRE_ONCE and SKIP: this run covers the missed occurrences, which are dropped
+            moveToNextOccurrence(now);
+        }
+
+        // Moves the deadline to the first occurrence strictly after the given time, unless it's already later
+        private void moveToNextOccurrence(long after) {
+            long next = Math.max(occurrence, intervalsTo(after) - 1);
+            while (occurrenceAt(next) <= after) {
+                next++;
+            }
+            moveTo(next);
+        }
+
+        // Moves the deadline to the last occurrence at or before the given time, which must not be before the deadline
+        private void moveToLatestOccurrence(long atOrBefore) {
+            long latest = Math.max(occurrence, intervalsTo(atOrBefore) + 1);
+            while (latest > occurrence && occurrenceAt(latest) > atOrBefore) {
+                latest--;
+            }
+            moveTo(latest);
+        }
+
+        private void moveTo(long occurrence) {
+            if (occurrence != this.occurrence) {
+                this.occurrence = occurrence;
+                deadline = occurrenceAt(occurrence);
+            }
+        }
+
+        // Calendar tasks count whole days in local time, then resolve that to an instant, so DST never shifts them
+        private long occurrenceAt(long occurrence) {
+            long millis = base + occurrence * runEvery;
+            return zoneClock == null ? millis : zoneClock.toEpochMillis(millis);
+        }
+
+        // Only approximate for calendar tasks, since a DST gap can push an occurrence past the given time
+        private long intervalsTo(long epochMillis) {
+            long millis = zoneClock == null ? epochMillis : zoneClock.toLocalMillis(epochMillis);
+            return Math.floorDiv(millis - base, runEvery);
+        }
+    }
+
+    /**
+     * Converts between epoch millis and local wall-clock millis for one zone. The offset is cached along with the
+     * span of time it holds for, so conversions are plain long arithmetic except on the rare call that crosses into a
+     * new span. Only used from the tick thread.
+     */
+    static final class ZoneClock {
+        private final ZoneId zone;
+        private final ZoneRules rules;
+
+        private long spanStart = Long.MAX_VALUE;
+        private long spanEnd = Long.MIN_VALUE;
+        private long offsetMillis;
+        // The part of the span where a local time can only mean one instant, away from the gap or overlap at each end
+        private long unambiguousStart = Long.MAX_VALUE;
+        private long unambiguousEnd = Long.MIN_VALUE;
+
+        ZoneClock(ZoneId zone) {
+            this.zone = zone;
+            this.rules = zone.getRules();
+        }
+
+        long toLocalMillis(long epochMillis) {
+            if (epochMillis < spanStart || epochMillis >= spanEnd) {
+                loadSpan(epochMillis);
+            }
+            return epochMillis + offsetMillis;
+        }
+
+        long toEpochMillis(long localMillis) {
+            long guess = localMillis - offsetMillis;
+            if (guess >= unambiguousStart && guess < unambiguousEnd) {
+                return guess;
+            }
+            // Another offset may apply; let the zone rules settle gaps (moved forward) and overlaps (earlier offset)
+            LocalDateTime local = LocalDateTime.ofEpochSecond(
+                Math.floorDiv(localMillis, 1000),
+                Math.floorMod(localMillis, 1000) * 1_000_000,
+                ZoneOffset.UTC
+            );
+            long epochMillis = TaskScheduler.toEpochMillis(ZonedDateTime.ofLocal(local, zone, null));
+            loadSpan(epochMillis);
+            return epochMillis;
+        }
+
+        private void loadSpan(long epochMillis) {
+            Instant instant = Instant.ofEpochMilli(epochMillis);
+            offsetMillis = rules.getOffset(instant).getTotalSeconds() * 1000L;
+            // previousTransition is strictly before its argument, so ask from just after the instant: a span starts
+            // right on its transition, and an instant that is itself a transition belongs to the span it starts
+            ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1));
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            spanStart = previous == null ? Long.MIN_VALUE : previous.toEpochSecond() * 1000;
+            spanEnd = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000;
+            // Within one offset change of a transition, the same local time can also fall in the neighbouring span
+            unambiguousStart = previous == null ? spanStart : spanStart + offsetChangeMillis(previous);
+            unambiguousEnd = next == null ? spanEnd : spanEnd - offsetChangeMillis(next);
+        }
+
+        private static long offsetChangeMillis(ZoneOffsetTransition transition) {
+            return Math.abs(transition.getDuration().toMillis());
+        }
+    }
+
+    /**
+     * Run time, lag and failure figures for one task name. Only read these from the tick thread.
+     */
+    public static final class TaskMetrics {
+        private final String name;
+        private final LatencyHistogram executionNanos = new LatencyHistogram();
+        private final LatencyHistogram lagMillis = new LatencyHistogram();
+        private long failures;
+
+        private TaskMetrics(String name) {
+            this.name = name;
+        }
+
+        private void record(long executionNanos, long lagMillis) {
+            if (executionNanos < 0) {
+                failures++;
+            } else {
+                this.executionNanos.record(executionNanos);
+            }
+            this.lagMillis.record(lagMillis);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long runs() {
+            return lagMillis.count();
+        }
+
+        public long failures() {
+            return failures;
+        }
+
+        /**
+         * @return Run times in nanoseconds, for runs that completed normally
+         */
+        public LatencyHistogram executionNanos() {
+            return executionNanos;
+        }
+
+        /**
+         * @return How late each run started, in milliseconds after its scheduled time
+         */
+        public LatencyHistogram lagMillis() {
+            return lagMillis;
+        }
+    }
+
+    public static class TaskConfig {
+        private Lane lane = Lane.TICK;
+        private Priority priority = Priority.NORMAL;
+        private MissedFirePolicy missedFirePolicy = MissedFirePolicy.SKIP;
+        private String name;
+
+        public TaskConfig lane(Lane lane) {
+            this.lane = lane;
+            return this;
+        }
+
+        public TaskConfig priority(Priority priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        public TaskConfig missedFirePolicy(MissedFirePolicy missedFirePolicy) {
+            this.missedFirePolicy = missedFirePolicy;
+            return this;
+        }
+
+        /**
+         * Names the task in logs and metrics. Tasks sharing a name share their metrics. Unnamed tasks fall back to the
+         * class of their action, which for a lambda or method reference is a generated name like
+         * {@code Foo$$Lambda$12/0x...}, so give anything long-lived a name.
+         */
+        public TaskConfig name(String name) {
+            this.name = name;
+            return this;
         }
     }
 
@@ -94,11 +792,14 @@ public class TaskScheduler {
      * Example usage
      */
     public static void main(String[] args) {
-        TaskScheduler.scheduleDailyQuietHours(() -> {
+        TaskScheduler.setTickBudget(Duration.ofMillis(5));
+        TaskScheduler.setSlowTaskThreshold(Duration.ofMillis(50));
+
+        TaskScheduler.scheduleDailyQuietHours(new TaskConfig().name("Example daily"), () -> {
             System.out.println("Task executed daily during quiet hours.");
         });
 
-        TaskScheduler.scheduleWeeklyQuietHours(() -> {
+        TaskScheduler.scheduleWeeklyQuietHours(new TaskConfig().name("Example weekly"), () -> {
             System.out.println("Task executed weekly during quiet hours.");
         });
 
@@ -106,18 +807,36 @@ public class TaskScheduler {
             System.out.println("Task executed daily at noon in Belgium.");
         });
 
-        TaskScheduler.scheduleTask("12:00 PM", TaskScheduler.belgium, Duration.ofHours(6), () -> {
+        TaskScheduler.scheduleTask("12:00 PM", TaskScheduler.belgium, Duration.ofHours(6), new TaskConfig().missedFirePolicy(MissedFirePolicy.FIRE_ONCE), () -> {
             System.out.println("Task executed every 6 hours, starting at noon in Belgium.");
         });
 
-        TaskScheduler.scheduleTask("8:00 AM", TaskScheduler.usEast, Duration.ofSeconds(10), () -> {
+        TaskScheduler.scheduleTask("8:00 AM", TaskScheduler.usEast, Duration.ofSeconds(10), new TaskConfig().priority(Priority.CRITICAL), () -> {
             System.out.println("Task executed every 10 seconds, starting at 8 AM in NYC.");
         });
 
-        TaskScheduler.scheduleTask(ZonedDateTime.now().plusMinutes(1), Duration.ofSeconds(10), () -> {
+        ScheduledTask handle = TaskScheduler.scheduleTask(ZonedDateTime.now().plusMinutes(1), Duration.ofSeconds(10), () -> {
             System.out.println("Task executed every 10 seconds, starting at now + 1 minute in local time.");
         });
 
+        TaskScheduler.scheduleTask(ZonedDateTime.now().plusMinutes(5), Duration.ofDays(1), () -> {
+            handle.cancel();
+            System.out.println("Cancelled the every 10 seconds task after 5 minutes.");
+        });
+
+        TaskScheduler.scheduleTask(ZonedDateTime.now().plusMinutes(10), Duration.ofDays(1), () -> {
+            TaskScheduler.printSlowTaskReport(10);
+        });
+
+        TaskScheduler.scheduleTask(ZonedDateTime.now(), Duration.ofSeconds(30), new TaskConfig().lane(Lane.WORKER).name("Example worker"), () -> {
+            long total = 0;
+            for (int i = 0; i < 100_000_000; i++) {
+                total += i;
+            }
+            long result = total;
+            TaskScheduler.runOnTick(() -> System.out.println("Worker task finished off-tick with result " + result));
+        });
+
         while (true){
             Processing.utcDateTime = ZonedDateTime.now();
             process();
@@ -0,0 +1,226 @@
+package server.util;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel keyed on epoch millis.
+ * <p>
+ * Each level has 64 slots, and a slot at level k spans 64^k millis, so 11 levels cover the whole range of a long.
+ * A node lives at the level of the highest 6-bit group in which its deadline differs from the wheel's current time,
+ * and is cascaded down a level each time that slot comes due. Every node is therefore touched at most once per level,
+ * which keeps insertion, removal and expiry amortized O(1).
+ * <p>
+ * An occupancy bitmap per level lets {@link #advance(long, Consumer)} jump straight to the next non-empty slot, and the
+ * earliest slot time is cached, so advancing when nothing is due is a single comparison.
+ */
+public class TimingWheel<N extends TimingWheel.Node> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = (Long.SIZE + SLOT_BITS - 1) / SLOT_BITS;
+
+    // Nodes added with a deadline at or before the current time; these expire on the next advance
+    private static final int OVERDUE = LEVELS * SLOTS;
+    private static final int NONE = -1;
+
+    private final Node[] buckets = new Node[LEVELS * SLOTS + 1];
+    private final long[] occupied = new long[LEVELS];
+
+    private long currentTime;
+    private long nextExpiry = Long.MAX_VALUE;
+    private int size;
+
+    public TimingWheel(long startTime) {
+        this.currentTime = startTime;
+    }
+
+    public void add(N node) {
+        if (node.bucket != Node.UNLINKED) {
+            throw new IllegalStateException("Node is already in a timing wheel");
+        }
+        long deadline = node.deadline;
+        int bucket;
+        long slotTime;
+        if (deadline <= currentTime) {
+            bucket = OVERDUE;
+            slotTime = currentTime;
+        } else {
+            int level = (63 - Long.numberOfLeadingZeros(deadline ^ currentTime)) / SLOT_BITS;
+            int shift = level * SLOT_BITS;
+            int slot = (int) ((deadline >>> shift) & SLOT_MASK);
+            bucket = level * SLOTS + slot;
+            occupied[level] |= 1L << slot;
+            slotTime = (deadline >>> shift) << shift;
+        }
+
+        Node head = buckets[bucket];
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        }
+        buckets[bucket] = node;
+        node.bucket = bucket;
+        size++;
+
+        if (slotTime < nextExpiry) {
+            nextExpiry = slotTime;
+        }
+    }
+
+    public boolean remove(N node) {
+        int bucket = node.bucket;
+        if (bucket == Node.UNLINKED) {
+            return false;
+        }
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            buckets[bucket] = node.next;
+            if (node.next == null && bucket != OVERDUE) {
+                occupied[bucket / SLOTS] &= ~(1L << (bucket & SLOT_MASK));
+            }
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.unlink();
+        size--;
+        // nextExpiry is left as is; a stale lower bound only costs one extra lookup in advance
+        return true;
+    }
+
+    /**
+     * Moves the wheel forward to {@code now}, handing every node whose deadline is at or before {@code now} to
+     * {@code expired}. Nodes added from inside the callback with a deadline at or before {@code now} are held until the
+     * next call, so a node can never expire twice in one advance. The callback may add nodes, but must not remove any.
+     */
+    @SuppressWarnings("unchecked")
+    public void advance(long now, Consumer<? super N> expired) {
+        if (now < nextExpiry) {
+            // Nothing can be due yet. Moving the current time up to now keeps every node at a valid level, since now
+            // is still before the earliest occupied slot.
+            if (now > currentTime) {
+                currentTime = now;
+            }
+            return;
+        }
+
+        Node overdue = buckets[OVERDUE];
+        buckets[OVERDUE] = null;
+
+        while (overdue != null) {
+            Node next = overdue.next;
+            overdue.unlink();
+            size--;
+            expired.accept((N) overdue);
+            overdue = next;
+        }
+
+        int bucket;
+        long slotTime = Long.MAX_VALUE;
+        while ((bucket = findNextBucket()) != NONE && (slotTime = slotTime(bucket)) <= now) {
+            currentTime = slotTime;
+            int level = bucket / SLOTS;
+
+            Node node = buckets[bucket];
+            buckets[bucket] = null;
+            occupied[level] &= ~(1L << (bucket & SLOT_MASK));
+
+            while (node != null) {
+                Node next = node.next;
+                node.unlink();
+                size--;
+                if (node.deadline <= slotTime) {
+                    expired.accept((N) node);
+                } else {
+                    add((N) node);
+                }
+                node = next;
+            }
+            slotTime = Long.MAX_VALUE;
+        }
+
+        if (now > currentTime) {
+            currentTime = now;
+        }
+        nextExpiry = buckets[OVERDUE] != null ? currentTime : slotTime;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long currentTime() {
+        return currentTime;
+    }
+
+    /**
+     * @return A lower bound on the time at which {@link #advance(long, Consumer)} will next have work to do
+     */
+    public long nextExpiry() {
+        return nextExpiry;
+    }
+
+    /**
+     * Calls {@code action} for every node still in the wheel, in no particular order. The node being visited may be
+     * removed from inside the callback.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super N> action) {
+        for (Node head : buckets) {
+            Node node = head;
+            while (node != null) {
+                Node next = node.next;
+                action.accept((N) node);
+                node = next;
+            }
+        }
+    }
+
+    private int findNextBucket() {
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = occupied[level];
+            if (bits == 0) {
+                continue;
+            }
+            int index = (int) ((currentTime >>> (level * SLOT_BITS)) & SLOT_MASK);
+            // Every node is in a slot after the current one at its level, so only later slots need checking
+            long later = index == SLOT_MASK ? 0 : bits & (-1L << (index + 1));
+            if (later != 0) {
+                return level * SLOTS + Long.numberOfTrailingZeros(later);
+            }
+        }
+        return NONE;
+    }
+
+    private long slotTime(int bucket) {
+        int shift = (bucket / SLOTS) * SLOT_BITS;
+        int upperShift = shift + SLOT_BITS;
+        long base = upperShift >= Long.SIZE ? 0 : (currentTime >>> upperShift) << upperShift;
+        return base | ((long) (bucket & SLOT_MASK) << shift);
+    }
+
+    public abstract static class Node {
+        static final int UNLINKED = -1;
+
+        long deadline;
+        Node prev;
+        Node next;
+        int bucket = UNLINKED;
+
+        public long deadline() {
+            return deadline;
+        }
+
+        public boolean isScheduled() {
+            return bucket != UNLINKED;
+        }
+
+        void unlink() {
+            prev = null;
+            next = null;
+            bucket = UNLINKED;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package server.util;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Checks {@link TaskScheduler.ZoneClock} against java.time around every offset transition from 1990 to 2040, including
+ * the exact transition instants and the local times in each gap and overlap, with the cache warmed from random points
+ * on either side. Exits with status 1 on any mismatch, so it can gate a release script.
+ */
+class ZoneClockCheck {
+
+    private static final ZoneId[] ZONES = {
+        TaskScheduler.usEast,
+        TaskScheduler.usWest,
+        TaskScheduler.belgium,
+        ZoneId.of("Europe/Dublin"),       // negative DST in the rules
+        ZoneId.of("Australia/Lord_Howe"), // half-hour DST
+        ZoneId.of("America/Sao_Paulo"),   // DST that was abolished
+    };
+    private static final long HOUR_MILLIS = 3_600_000;
+    private static final int RANDOM_CHECKS = 200_000;
+
+    private int checks;
+    private int failures;
+
+    public static void main(String[] args) {
+        ZoneClockCheck check = new ZoneClockCheck();
+        for (ZoneId zone : ZONES) {
+            check.checkZone(zone);
+        }
+        System.out.println(check.checks + " conversions checked, " + check.failures + " wrong");
+        if (check.failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private void checkZone(ZoneId zone) {
+        ZoneRules rules = zone.getRules();
+        long from = Instant.parse("1990-01-01T00:00:00Z").toEpochMilli();
+        long to = Instant.parse("2040-01-01T00:00:00Z").toEpochMilli();
+        List<Long> transitions = new ArrayList<>();
+        for (ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochMilli(from));
+             transition != null && transition.toEpochSecond() * 1000 < to;
+             transition = rules.nextTransition(transition.getInstant())) {
+            transitions.add(transition.toEpochSecond() * 1000);
+        }
+
+        // One clock throughout, the way the scheduler shares one per zone
+        TaskScheduler.ZoneClock clock = new TaskScheduler.ZoneClock(zone);
+        long[] nearby = {-HOUR_MILLIS * 3, -HOUR_MILLIS, -1, 0, 1, HOUR_MILLIS / 2, HOUR_MILLIS, HOUR_MILLIS * 3};
+        for (long transition : transitions) {
+            for (long warmAt : nearby) {
+                for (long checkAt : nearby) {
+                    clock.toLocalMillis(transition + warmAt);
+                    checkInstant(clock, rules, transition + checkAt);
+                    clock.toLocalMillis(transition + warmAt);
+                    checkLocal(clock, zone, transition + checkAt + rules.getOffset(Instant.ofEpochMilli(transition + warmAt)).getTotalSeconds() * 1000L);
+                }
+            }
+        }
+
+        SplittableRandom random = new SplittableRandom(zone.hashCode());
+        for (int i = 0; i < RANDOM_CHECKS && !transitions.isEmpty(); i++) {
+            long transition = transitions.get(random.nextInt(transitions.size()));
+            clock.toLocalMillis(transition + random.nextLong(-HOUR_MILLIS * 48, HOUR_MILLIS * 48));
+            long instant = transition + random.nextLong(-HOUR_MILLIS * 4, HOUR_MILLIS * 4);
+            checkInstant(clock, rules, instant);
+            checkLocal(clock, zone, instant + random.nextLong(-HOUR_MILLIS * 14, HOUR_MILLIS * 14));
+        }
+    }
+
+    private void checkInstant(TaskScheduler.ZoneClock clock, ZoneRules rules, long epochMillis) {
+        long expected = epochMillis + rules.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * 1000L;
+        long actual = clock.toLocalMillis(epochMillis);
+        report(actual == expected, "local time of " + Instant.ofEpochMilli(epochMillis), actual, expected);
+    }
+
+    private void checkLocal(TaskScheduler.ZoneClock clock, ZoneId zone, long localMillis) {
+        LocalDateTime local = LocalDateTime.ofEpochSecond(
+            Math.floorDiv(localMillis, 1000),
+            Math.floorMod(localMillis, 1000) * 1_000_000,
+            ZoneOffset.UTC
+        );
+        ZonedDateTime resolved = ZonedDateTime.ofLocal(local, zone, null);
+        long expected = resolved.toEpochSecond() * 1000 + resolved.getNano() / 1_000_000;
+        long actual = clock.toEpochMillis(localMillis);
+        report(actual == expected, "instant of local " + local + " in " + zone, actual, expected);
+    }
+
+    private void report(boolean correct, String what, long actual, long expected) {
+        checks++;
+        if (!correct && ++failures <= 20) {
+            System.out.println("Wrong " + what + ": got " + Instant.ofEpochMilli(actual) + ", expected " + Instant.ofEpochMilli(expected));
+        }
+    }
+}
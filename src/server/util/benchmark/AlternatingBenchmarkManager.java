@@ -1,34 +1,242 @@
 package server.util.benchmark;
 
-import java.util.concurrent.atomic.AtomicReference;
+import server.XLogger;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
+import java.util.logging.Level;
 
+/**
+ * A/B tests two implementations of the same function on live calls, alternating between them.
+ * <p>
+ * The first calls to each side are discarded as warmup. After that, each side keeps a random sample of its times, and
+ * {@link #compare()} bootstraps a confidence interval for the relative difference between their medians. Medians
+ * ignore the GC pauses and other outliers that make averages of live timings meaningless.
+ */
 public class AlternatingBenchmarkManager<T, R> {
+
+    public enum Verdict {
+        FASTER,
+        SLOWER,
+        INDISTINGUISHABLE
+    }
+
+    /**
+     * @param relativeDifference How much longer the test takes than the baseline, e.g. -0.03 for 3% faster
+     * @param lowerBound The lower end of the confidence interval for the relative difference
+     * @param upperBound The upper end of the confidence interval for the relative difference
+     */
+    public record Comparison(double baselineMedian, double testMedian, double relativeDifference,
+                             double lowerBound, double upperBound, double confidence, Verdict verdict) {
+        @Override
+        public String toString() {
+            if (verdict == null) {
+                return "Not enough samples to compare yet.";
+            }
+            return String.format("Test is %s: median %.0f ns vs %.0f ns baseline, %+.2f%% (%.0f%% CI %+.2f%% to %+.2f%%)",
+                verdict.name().toLowerCase(), testMedian, baselineMedian, relativeDifference * 100,
+                confidence * 100, lowerBound * 100, upperBound * 100);
+        }
+    }
+
+    private static final int DEFAULT_WARMUP_CALLS = 1_000;
+    private static final int SAMPLE_SIZE = 4_096;
+    private static final int MIN_SAMPLES = 30;
+    private static final int BOOTSTRAP_ROUNDS = 1_000;
+    private static final int LOGGED_MISMATCHES = 100;
+
     private final Function<T, R> baseline;
     private final BasicBenchmarkManager baselineManager = new BasicBenchmarkManager();
+    private final ReservoirSample baselineSample = new ReservoirSample(SAMPLE_SIZE, 1);
     private final Function<T, R> test;
     private final BasicBenchmarkManager testManager = new BasicBenchmarkManager();
+    private final ReservoirSample testSample = new ReservoirSample(SAMPLE_SIZE, 2);
+
+    private final int warmupCalls;
+    private int baselineWarmupLeft;
+    private int testWarmupLeft;
+    private double confidence = 0.95;
+
+    private double shadowFraction;
+    private BiPredicate<? super R, ? super R> resultsMatch = Objects::equals;
+    private final SplittableRandom shadowRandom = new SplittableRandom();
+    private long shadowChecks;
+    private long mismatches;
 
     private boolean checkBaseline = false;
 
     public AlternatingBenchmarkManager(Function<T, R> baseline, Function<T, R> test) {
+        this(baseline, test, DEFAULT_WARMUP_CALLS);
+    }
+
+    /**
+     * @param warmupCalls The number of calls to each implementation to leave out of the results
+     */
+    public AlternatingBenchmarkManager(Function<T, R> baseline, Function<T, R> test, int warmupCalls) {
         this.baseline = baseline;
         this.test = test;
+        this.warmupCalls = warmupCalls;
+        this.baselineWarmupLeft = warmupCalls;
+        this.testWarmupLeft = warmupCalls;
     }
 
     public R benchmark(T params) {
-        AtomicReference<R> result = new AtomicReference<>();
-        if (checkBaseline){
-            baselineManager.benchmark(() -> result.set(baseline.apply(params)));
+        R result;
+        boolean ranBaseline = checkBaseline;
+        long startTime = System.nanoTime();
+        if (ranBaseline){
+            result = baseline.apply(params);
+            long executionTime = System.nanoTime() - startTime;
+            if (baselineWarmupLeft > 0) {
+                baselineWarmupLeft--;
+            } else {
+                baselineManager.record(executionTime);
+                baselineSample.add(executionTime);
+            }
         } else {
-            testManager.benchmark(() -> result.set(test.apply(params)));
+            result = test.apply(params);
+            long executionTime = System.nanoTime() - startTime;
+            if (testWarmupLeft > 0) {
+                testWarmupLeft--;
+            } else {
+                testManager.record(executionTime);
+                testSample.add(executionTime);
+            }
         }
         checkBaseline = !checkBaseline;
-        return result.get();
+
+        if (shadowFraction > 0 && shadowRandom.nextDouble() < shadowFraction) {
+            result = shadowCheck(params, result, ranBaseline);
+        }
+        return result;
+    }
+
+    /*
+     * Shadow checks
+     */
+
+    /**
+     * On the given fraction of calls, also runs the implementation that wasn't timed, outside the timing, and compares
+     * the two results with {@link Objects#equals}. Both implementations must be free of side effects that matter when
+     * run twice.
+     */
+    public void setShadowCheck(double fraction) {
+        setShadowCheck(fraction, Objects::equals);
+    }
+
+    public void setShadowCheck(double fraction, BiPredicate<? super R, ? super R> resultsMatch) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Fraction must be between 0 and 1: " + fraction);
+        }
+        this.shadowFraction = fraction;
+        this.resultsMatch = resultsMatch;
+    }
+
+    public long getShadowCheckCount() {
+        return shadowChecks;
+    }
+
+    public long getMismatchCount() {
+        return mismatches;
+    }
+
+    // Returns the baseline's result, so a mismatching call still behaves as it did before the rewrite
+    private R shadowCheck(T params, R result, boolean ranBaseline) {
+        R baselineResult = ranBaseline ? result : baseline.apply(params);
+        R testResult = ranBaseline ? test.apply(params) : result;
+        shadowChecks++;
+        if (!resultsMatch.test(baselineResult, testResult)) {
+            mismatches++;
+            if (mismatches <= LOGGED_MISMATCHES) {
+                XLogger.getInstance().log(Level.WARNING, "Benchmark mismatch for input " + params
+                    + ": baseline returned " + baselineResult + ", test returned " + testResult
+                    + (mismatches == LOGGED_MISMATCHES ? " (further mismatches are only counted)" : ""));
+            }
+        }
+        return baselineResult;
+    }
+
+    /**
+     * @param confidence The confidence level for verdicts, between 0 and 1
+     */
+    public void setConfidence(double confidence) {
+        if (confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("Confidence must be between 0 and 1: " + confidence);
+        }
+        this.confidence = confidence;
+    }
+
+    /**
+     * Compares the medians of the two sides with a percentile bootstrap. The test is only called faster or slower when
+     * the whole confidence interval for the difference lies on that side of zero.
+     */
+    public Comparison compare() {
+        long[] baselineTimes = baselineSample.toArray();
+        long[] testTimes = testSample.toArray();
+        if (baselineTimes.length < MIN_SAMPLES || testTimes.length < MIN_SAMPLES) {
+            return new Comparison(0, 0, 0, 0, 0, confidence, null);
+        }
+
+        double baselineMedian = ReservoirSample.median(baselineTimes.clone(), baselineTimes.length);
+        double testMedian = ReservoirSample.median(testTimes.clone(), testTimes.length);
+        double relativeDifference = testMedian / Math.max(1, baselineMedian) - 1;
+
+        SplittableRandom random = new SplittableRandom(42);
+        long[] resampledBaseline = new long[baselineTimes.length];
+        long[] resampledTest = new long[testTimes.length];
+        double[] differences = new double[BOOTSTRAP_ROUNDS];
+        for (int round = 0; round < BOOTSTRAP_ROUNDS; round++) {
+            resample(baselineTimes, resampledBaseline, random);
+            resample(testTimes, resampledTest, random);
+            double resampledBaselineMedian = ReservoirSample.median(resampledBaseline, resampledBaseline.length);
+            double resampledTestMedian = ReservoirSample.median(resampledTest, resampledTest.length);
+            differences[round] = resampledTestMedian / Math.max(1, resampledBaselineMedian) - 1;
+        }
+        Arrays.sort(differences);
+        double tail = (1 - confidence) / 2;
+        double lowerBound = differences[(int) Math.floor(tail * (BOOTSTRAP_ROUNDS - 1))];
+        double upperBound = differences[(int) Math.ceil((1 - tail) * (BOOTSTRAP_ROUNDS - 1))];
+
+        Verdict verdict;
+        if (upperBound < 0) {
+            verdict = Verdict.FASTER;
+        } else if (lowerBound > 0) {
+            verdict = Verdict.SLOWER;
+        } else {
+            verdict = Verdict.INDISTINGUISHABLE;
+        }
+        return new Comparison(baselineMedian, testMedian, relativeDifference, lowerBound, upperBound, confidence, verdict);
+    }
+
+    private static void resample(long[] from, long[] into, SplittableRandom random) {
+        for (int i = 0; i < into.length; i++) {
+            into[i] = from[random.nextInt(from.length)];
+        }
+    }
+
+    /**
+     * Discards everything recorded so far, and warms both sides up again.
+     */
+    public void reset() {
+        baselineManager.reset();
+        testManager.reset();
+        baselineSample.reset();
+        testSample.reset();
+        baselineWarmupLeft = warmupCalls;
+        testWarmupLeft = warmupCalls;
+        shadowChecks = 0;
+        mismatches = 0;
     }
 
     public void printMetrics() {
         baselineManager.printMetrics("Baseline:");
         testManager.printMetrics("Test:");
+        XLogger.getInstance().log(Level.INFO, compare().toString());
+        if (shadowChecks > 0) {
+            XLogger.getInstance().log(Level.INFO, "Shadow checks: " + shadowChecks + ", mismatches: " + mismatches);
+        }
     }
-}
\ No newline at end of file
+}
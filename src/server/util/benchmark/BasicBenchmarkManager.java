@@ -2,50 +2,202 @@ package server.util.benchmark;
 
 import server.XLogger;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.util.logging.Level;
 
+/**
+ * Times runnables into fixed-size histograms, so it can be left on a live hot path: memory doesn't grow with the number
+ * of samples and recording never allocates.
+ * <p>
+ * Each benchmarked run also records the bytes the current thread allocated, and any garbage collections that happened
+ * while it ran, since allocation regressions usually only show up later as GC pauses.
+ */
 public class BasicBenchmarkManager {
-    private final List<Long> executionTimes = new ArrayList<>();
+    // 7 sub-bucket bits keeps every reported time within 1% of the true value
+    static final int PRECISION_BITS = 7;
+
+    private static final com.sun.management.ThreadMXBean threadBean = allocationCountingThreadBean();
+    // An array rather than the list, so summing the counters doesn't allocate an iterator
+    private static final GarbageCollectorMXBean[] gcBeans = ManagementFactory.getGarbageCollectorMXBeans().toArray(new GarbageCollectorMXBean[0]);
+
+    private final Metrics totals = new Metrics();
+    private final Metrics interval = new Metrics();
 
     public void benchmark(Runnable runnable) {
+        long startAllocated = allocatedBytes();
+        long startGcCount = gcCount();
+        long startGcMillis = gcMillis();
         long startTime = System.nanoTime();
         runnable.run();
         long endTime = System.nanoTime();
-        long executionTime = endTime - startTime;
-        executionTimes.add(executionTime);
+        long allocated = allocatedBytes() - startAllocated;
+        long gcs = gcCount() - startGcCount;
+        long gcTime = gcs == 0 ? 0 : gcMillis() - startGcMillis;
+
+        totals.record(endTime - startTime, allocated, gcs, gcTime);
+        interval.record(endTime - startTime, allocated, gcs, gcTime);
+    }
+
+    /**
+     * Records a time measured elsewhere, in nanoseconds, without allocation or GC figures.
+     */
+    public void record(long executionTime) {
+        totals.executionTimes.record(executionTime);
+        interval.executionTimes.record(executionTime);
+    }
+
+    /**
+     * @return A copy of every time recorded since the last {@link #reset()}
+     */
+    public LatencyHistogram getHistogram() {
+        return totals.executionTimes.copy();
+    }
+
+    /**
+     * @return The times recorded since the previous snapshot, starting a new interval
+     */
+    public LatencyHistogram intervalSnapshot() {
+        return intervalMetrics().executionTimes;
+    }
+
+    /**
+     * Saves every time recorded since the last reset to a results file, for comparing against other builds.
+     *
+     * @see BenchmarkResultStore
+     */
+    public void saveMetrics(Path file, String build, String benchmark) throws IOException {
+        BenchmarkResultStore.save(file, build, benchmark, getHistogram());
+    }
+
+    public void reset() {
+        totals.reset();
+        interval.reset();
     }
 
     public void printMetrics(String prefix) {
-        if (executionTimes.isEmpty()) {
+        printMetrics(prefix, totals);
+    }
+
+    /**
+     * Prints only what was recorded since the last snapshot, then starts a new interval.
+     */
+    public void printIntervalMetrics(String prefix) {
+        printMetrics(prefix, intervalMetrics());
+    }
+
+    private Metrics intervalMetrics() {
+        Metrics snapshot = interval.copy();
+        interval.reset();
+        return snapshot;
+    }
+
+    private static void printMetrics(String prefix, Metrics metrics) {
+        LatencyHistogram histogram = metrics.executionTimes;
+        if (histogram.count() == 0) {
             XLogger.getInstance().log(Level.INFO, "No benchmarks have been run.");
             return;
         }
 
-        long minTime = executionTimes.get(0);
-        long maxTime = executionTimes.get(0);
-        long totalExecutionTime = 0;
+        StringBuilder report = new StringBuilder(prefix).append("\nBenchmark Metrics:\n");
+        appendExecutionTimes(report, histogram);
+
+        LatencyHistogram allocated = metrics.allocatedBytes;
+        if (allocated.count() > 0) {
+            report.append("\nAverage Allocated: ").append(Math.round(allocated.mean())).append(" bytes\n")
+                .append("p99 Allocated: ").append(allocated.percentile(99)).append(" bytes\n")
+                .append("Maximum Allocated: ").append(allocated.max()).append(" bytes\n")
+                .append("Garbage Collections: ").append(metrics.gcCount)
+                .append(" during ").append(metrics.runsWithGc).append(" runs, ")
+                .append(metrics.gcMillis).append(" milliseconds");
+        }
 
-        for (Long executionTime : executionTimes) {
-            if (executionTime < minTime) {
-                minTime = executionTime;
+        XLogger.getInstance().log(Level.INFO, report.toString());
+    }
+
+    static void appendExecutionTimes(StringBuilder report, LatencyHistogram histogram) {
+        report.append("Total Runs: ").append(histogram.count()).append("\n")
+            .append("Total Execution Time: ").append(histogram.sum()).append(" nanoseconds\n")
+            .append("Minimum Execution Time: ").append(histogram.min()).append(" nanoseconds\n")
+            .append("Average Execution Time: ").append(histogram.mean()).append(" nanoseconds\n")
+            .append("p50 Execution Time: ").append(histogram.percentile(50)).append(" nanoseconds\n")
+            .append("p90 Execution Time: ").append(histogram.percentile(90)).append(" nanoseconds\n")
+            .append("p99 Execution Time: ").append(histogram.percentile(99)).append(" nanoseconds\n")
+            .append("p99.9 Execution Time: ").append(histogram.percentile(99.9)).append(" nanoseconds\n")
+            .append("Maximum Execution Time: ").append(histogram.max()).append(" nanoseconds");
+    }
+
+    /*
+     * Allocation and GC counters
+     */
+
+    private static com.sun.management.ThreadMXBean allocationCountingThreadBean() {
+        // HotSpot-specific; other JVMs just report no allocation figures
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return threadBean == null ? 0 : threadBean.getCurrentThreadAllocatedBytes();
+    }
+
+    // Both sums are across every collector, since a young and an old collection both pause the run
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : gcBeans) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : gcBeans) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static final class Metrics {
+        private final LatencyHistogram executionTimes = new LatencyHistogram(PRECISION_BITS);
+        private final LatencyHistogram allocatedBytes = new LatencyHistogram();
+        private long gcCount;
+        private long gcMillis;
+        private long runsWithGc;
+
+        private void record(long executionTime, long allocated, long gcs, long gcTime) {
+            executionTimes.record(executionTime);
+            if (threadBean != null) {
+                allocatedBytes.record(allocated);
             }
-            if (executionTime > maxTime) {
-                maxTime = executionTime;
+            if (gcs > 0) {
+                gcCount += gcs;
+                gcMillis += gcTime;
+                runsWithGc++;
             }
-            totalExecutionTime += executionTime;
         }
 
-        double averageTime = (double) totalExecutionTime / executionTimes.size();
-
-        String metrics = prefix + "\nBenchmark Metrics:\n" +
-            "Total Runs: " + executionTimes.size() + "\n" +
-            "Total Execution Time: " + totalExecutionTime + " nanoseconds\n" +
-            "Minimum Execution Time: " + minTime + " nanoseconds\n" +
-            "Maximum Execution Time: " + maxTime + " nanoseconds\n" +
-            "Average Execution Time: " + averageTime + " nanoseconds";
+        private Metrics copy() {
+            Metrics copy = new Metrics();
+            copy.executionTimes.add(executionTimes);
+            copy.allocatedBytes.add(allocatedBytes);
+            copy.gcCount = gcCount;
+            copy.gcMillis = gcMillis;
+            copy.runsWithGc = runsWithGc;
+            return copy;
+        }
 
-        XLogger.getInstance().log(Level.INFO, metrics);
+        private void reset() {
+            executionTimes.reset();
+            allocatedBytes.reset();
+            gcCount = 0;
+            gcMillis = 0;
+            runsWithGc = 0;
+        }
     }
 }
@@ -0,0 +1,218 @@
+package server.util.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps benchmark results in a local CSV file, one row per benchmark per build, so runs from different builds can be
+ * compared later without re-running the old build.
+ */
+public class BenchmarkResultStore {
+
+    private static final String VERSION_LINE = "# benchmark-results v1";
+    private static final String HEADER = "build,benchmark,recorded_at,runs,mean_ns,p50_ns,p90_ns,p99_ns,p999_ns,max_ns";
+
+    public record Result(String build, String benchmark, Instant recordedAt, long runs, double mean,
+                         long p50, long p90, long p99, long p999, long max) {
+    }
+
+    /**
+     * Appends a row for the histogram, creating the file if needed. Saving the same benchmark again for a build
+     * supersedes the earlier row.
+     */
+    public static void save(Path file, String build, String benchmark, LatencyHistogram histogram) throws IOException {
+        boolean created = !Files.exists(file);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (created) {
+                writer.write(VERSION_LINE);
+                writer.newLine();
+                writer.write(HEADER);
+                writer.newLine();
+            }
+            writer.write(String.join(",",
+                quote(build),
+                quote(benchmark),
+                Instant.now().toString(),
+                Long.toString(histogram.count()),
+                String.format(Locale.ROOT, "%.1f", histogram.mean()),
+                Long.toString(histogram.percentile(50)),
+                Long.toString(histogram.percentile(90)),
+                Long.toString(histogram.percentile(99)),
+                Long.toString(histogram.percentile(99.9)),
+                Long.toString(histogram.max())
+            ));
+            writer.newLine();
+        }
+    }
+
+    public static List<Result> load(Path file) throws IOException {
+        List<Result> results = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(VERSION_LINE)) {
+            throw new IOException(file + " is not a benchmark results file");
+        }
+        for (int i = 2; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> fields = split(line);
+            if (fields.size() != 10) {
+                throw new IOException("Malformed row at " + file + ":" + (i + 1));
+            }
+            results.add(new Result(
+                fields.get(0),
+                fields.get(1),
+                Instant.parse(fields.get(2)),
+                Long.parseLong(fields.get(3)),
+                Double.parseDouble(fields.get(4)),
+                Long.parseLong(fields.get(5)),
+                Long.parseLong(fields.get(6)),
+                Long.parseLong(fields.get(7)),
+                Long.parseLong(fields.get(8)),
+                Long.parseLong(fields.get(9))
+            ));
+        }
+        return results;
+    }
+
+    /**
+     * @return The latest result of each benchmark for the build, by benchmark name
+     */
+    public static Map<String, Result> latest(List<Result> results, String build) {
+        Map<String, Result> latest = new LinkedHashMap<>();
+        for (Result result : results) {
+            if (result.build().equals(build)) {
+                latest.put(result.benchmark(), result);
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Compares every benchmark both builds have results for. A benchmark is flagged as a regression when its median or
+     * its p99 grew by more than the threshold.
+     *
+     * @param thresholdPercent e.g. 5 to flag anything more than 5% slower
+     */
+    public static String compare(List<Result> results, String baseBuild, String newBuild, double thresholdPercent) {
+        Map<String, Result> base = latest(results, baseBuild);
+        Map<String, Result> current = latest(results, newBuild);
+
+        StringBuilder report = new StringBuilder(String.format("Benchmarks, %s -> %s (threshold %.1f%%):%n", baseBuild, newBuild, thresholdPercent));
+        report.append(String.format("%-50s %12s %12s %9s %12s %12s %9s  %s%n",
+            "Benchmark", "Old p50 ns", "New p50 ns", "Change", "Old p99 ns", "New p99 ns", "Change", ""));
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result before = base.get(entry.getKey());
+            if (before == null) {
+                report.append(String.format("%-50s (no result for %s)%n", entry.getKey(), baseBuild));
+                continue;
+            }
+            Result after = entry.getValue();
+            double p50Change = change(before.p50(), after.p50());
+            double p99Change = change(before.p99(), after.p99());
+            String flag = "";
+            if (isRegression(before, after, thresholdPercent)) {
+                flag = "REGRESSION";
+                regressions++;
+            } else if (p50Change < -thresholdPercent && p99Change < thresholdPercent) {
+                flag = "improved";
+            }
+            report.append(String.format("%-50s %12d %12d %+8.1f%% %12d %12d %+8.1f%%  %s%n",
+                entry.getKey(), before.p50(), after.p50(), p50Change, before.p99(), after.p99(), p99Change, flag));
+        }
+        for (String benchmark : base.keySet()) {
+            if (!current.containsKey(benchmark)) {
+                report.append(String.format("%-50s (no result for %s)%n", benchmark, newBuild));
+            }
+        }
+        report.append(regressions).append(regressions == 1 ? " regression" : " regressions").append(" found");
+        return report.toString();
+    }
+
+    /**
+     * @return The number of benchmarks {@link #compare} would flag as regressions
+     */
+    public static int countRegressions(List<Result> results, String baseBuild, String newBuild, double thresholdPercent) {
+        Map<String, Result> base = latest(results, baseBuild);
+        int regressions = 0;
+        for (Result after : latest(results, newBuild).values()) {
+            Result before = base.get(after.benchmark());
+            if (before != null && isRegression(before, after, thresholdPercent)) {
+                regressions++;
+            }
+        }
+        return regressions;
+    }
+
+    private static boolean isRegression(Result before, Result after, double thresholdPercent) {
+        return change(before.p50(), after.p50()) > thresholdPercent || change(before.p99(), after.p99()) > thresholdPercent;
+    }
+
+    private static double change(long before, long after) {
+        return before == 0 ? 0 : (after - before) * 100.0 / before;
+    }
+
+    private static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /*
+     * Comparison command: <results file> <base build> <new build> [threshold percent, default 5]
+     * Exits with status 1 if anything regressed, so it can gate a release script.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: BenchmarkResultStore <results file> <base build> <new build> [threshold percent]");
+            return;
+        }
+        List<Result> results = load(Path.of(args[0]));
+        double threshold = args.length > 3 ? Double.parseDouble(args[3]) : 5;
+        System.out.println(compare(results, args[1], args[2], threshold));
+        if (countRegressions(results, args[1], args[2], threshold) > 0) {
+            System.exit(1);
+        }
+    }
+}
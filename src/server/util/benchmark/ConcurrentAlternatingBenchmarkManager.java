@@ -0,0 +1,72 @@
+package server.util.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A thread-safe {@link AlternatingBenchmarkManager}. Calls from every thread share one counter that alternates between
+ * the two implementations, so the sides stay balanced however calls are spread across threads, even with one call per
+ * thread. The first calls to each side, counted across all threads, are discarded as warmup.
+ */
+public class ConcurrentAlternatingBenchmarkManager<T, R> {
+
+    private static final int DEFAULT_WARMUP_CALLS = 1_000;
+
+    private final Function<T, R> baseline;
+    private final ConcurrentBenchmarkManager baselineManager = new ConcurrentBenchmarkManager();
+    private final Function<T, R> test;
+    private final ConcurrentBenchmarkManager testManager = new ConcurrentBenchmarkManager();
+    private final long warmupCalls;
+    // Even calls go to the test side and odd ones to the baseline, as in AlternatingBenchmarkManager
+    private final AtomicLong calls = new AtomicLong();
+
+    public ConcurrentAlternatingBenchmarkManager(Function<T, R> baseline, Function<T, R> test) {
+        this(baseline, test, DEFAULT_WARMUP_CALLS);
+    }
+
+    /**
+     * @param warmupCalls The number of calls to each implementation to leave out of the results
+     */
+    public ConcurrentAlternatingBenchmarkManager(Function<T, R> baseline, Function<T, R> test, int warmupCalls) {
+        this.baseline = baseline;
+        this.test = test;
+        this.warmupCalls = warmupCalls;
+    }
+
+    public R benchmark(T params) {
+        long call = calls.getAndIncrement();
+        boolean runBaseline = (call & 1) == 1;
+        boolean warmingUp = call < warmupCalls * 2;
+
+        long startTime = System.nanoTime();
+        R result = runBaseline ? baseline.apply(params) : test.apply(params);
+        long executionTime = System.nanoTime() - startTime;
+
+        if (!warmingUp) {
+            (runBaseline ? baselineManager : testManager).record(executionTime);
+        }
+        return result;
+    }
+
+    public LatencyHistogram getBaselineHistogram() {
+        return baselineManager.getHistogram();
+    }
+
+    public LatencyHistogram getTestHistogram() {
+        return testManager.getHistogram();
+    }
+
+    /**
+     * Discards everything recorded so far, and warms both sides up again.
+     */
+    public void reset() {
+        calls.set(0);
+        baselineManager.reset();
+        testManager.reset();
+    }
+
+    public void printMetrics() {
+        baselineManager.printMetrics("Baseline:");
+        testManager.printMetrics("Test:");
+    }
+}
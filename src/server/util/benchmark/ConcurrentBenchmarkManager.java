@@ -0,0 +1,133 @@
+package server.util.benchmark;
+
+import server.XLogger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * A thread-safe {@link BasicBenchmarkManager} for code that runs on many threads at once, such as the network threads.
+ * <p>
+ * Times are recorded into a fixed set of striped histograms, about two per CPU, so memory stays the same however many
+ * threads (virtual or not) come and go. Each thread starts at a stripe picked by a hash of its id, and if another thread
+ * holds that stripe it moves on to the next free one rather than waiting, so a thread only blocks when every stripe is
+ * busy at once. The stripes are only merged when metrics are read.
+ */
+public class ConcurrentBenchmarkManager {
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public ConcurrentBenchmarkManager() {
+        // The next power of two at or above twice the CPU count, so a free stripe is usually one or two steps away
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1));
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = count - 1;
+    }
+
+    public void benchmark(Runnable runnable) {
+        long startTime = System.nanoTime();
+        runnable.run();
+        long endTime = System.nanoTime();
+        record(endTime - startTime);
+    }
+
+    /**
+     * Records a time measured elsewhere, in nanoseconds.
+     */
+    public void record(long executionTime) {
+        int home = stripeIndex(Thread.currentThread().getId());
+        Stripe stripe = stripes[home];
+        if (!stripe.lock.tryLock()) {
+            stripe = lockFreeStripe(home);
+        }
+        try {
+            stripe.executionTimes.record(executionTime);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Returns the first stripe after the busy one that nobody holds, locked, or waits for the busy one if all are held
+    private Stripe lockFreeStripe(int busy) {
+        for (int step = 1; step < stripes.length; step++) {
+            Stripe stripe = stripes[(busy + step) & stripeMask];
+            if (stripe.lock.tryLock()) {
+                return stripe;
+            }
+        }
+        Stripe stripe = stripes[busy];
+        stripe.lock.lock();
+        return stripe;
+    }
+
+    /**
+     * @return Every thread's times since the last {@link #reset()}, merged
+     */
+    public LatencyHistogram getHistogram() {
+        LatencyHistogram merged = new LatencyHistogram(BasicBenchmarkManager.PRECISION_BITS);
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                merged.add(stripe.executionTimes);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return The number of histograms times are spread across
+     */
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Saves every time recorded since the last reset to a results file, for comparing against other builds.
+     *
+     * @see BenchmarkResultStore
+     */
+    public void saveMetrics(Path file, String build, String benchmark) throws IOException {
+        BenchmarkResultStore.save(file, build, benchmark, getHistogram());
+    }
+
+    public void reset() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.executionTimes.reset();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    public void printMetrics(String prefix) {
+        LatencyHistogram histogram = getHistogram();
+        if (histogram.count() == 0) {
+            XLogger.getInstance().log(Level.INFO, "No benchmarks have been run.");
+            return;
+        }
+        StringBuilder report = new StringBuilder(prefix).append("\nBenchmark Metrics:\n");
+        BasicBenchmarkManager.appendExecutionTimes(report, histogram);
+        XLogger.getInstance().log(Level.INFO, report.toString());
+    }
+
+    // Thread ids are handed out sequentially, so mix them before masking to spread neighbours across stripes
+    private int stripeIndex(long threadId) {
+        long hash = threadId * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & stripeMask;
+    }
+
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LatencyHistogram executionTimes = new LatencyHistogram(BasicBenchmarkManager.PRECISION_BITS);
+    }
+}
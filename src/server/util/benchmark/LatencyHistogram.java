@@ -0,0 +1,136 @@
+package server.util.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory histogram of non-negative long values, bucketed log-linearly in the style of HdrHistogram.
+ * <p>
+ * Each power of two is split into 2^subBucketBits equal buckets, so any recorded value is known to within a relative
+ * error of 2^-subBucketBits, whatever its magnitude. Recording is a couple of bit operations and an array increment, and
+ * never allocates.
+ */
+public class LatencyHistogram {
+
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final long[] counts;
+
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public LatencyHistogram() {
+        this(3);
+    }
+
+    public LatencyHistogram(int subBucketBits) {
+        if (subBucketBits < 1 || subBucketBits > 10) {
+            throw new IllegalArgumentException("Sub-bucket bits must be between 1 and 10: " + subBucketBits);
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBucketCount = 1 << subBucketBits;
+        this.counts = new long[(Long.SIZE - subBucketBits) * subBucketCount];
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public long count() {
+        return totalCount;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    public long min() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return The highest value equivalent to the one at the given percentile, capped at the recorded maximum
+     */
+    public long percentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    public void add(LatencyHistogram other) {
+        if (other.subBucketBits != subBucketBits) {
+            throw new IllegalArgumentException("Can't add histograms with different precision");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram(subBucketBits);
+        copy.add(this);
+        return copy;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    private int indexOf(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - subBucketBits;
+        int subBucket = (int) ((value >>> shift) & (subBucketCount - 1));
+        return (shift + 1) * subBucketCount + subBucket;
+    }
+
+    private long highestEquivalentValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = index / subBucketCount - 1;
+        int subBucket = index % subBucketCount;
+        long lowest = (long) (subBucketCount + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
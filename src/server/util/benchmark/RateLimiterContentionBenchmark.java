@@ -0,0 +1,99 @@
+package server.util.benchmark;
+
+import server.Processing;
+import server.util.ConcurrentRateLimitedActions;
+import server.util.RateLimitedActions;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Compares the single-threaded RateLimitedActions against ConcurrentRateLimitedActions as more threads hammer the same
+ * small set of identifiers, the way a login flood or packet spam would.
+ */
+public class RateLimiterContentionBenchmark {
+
+    private static final int KEYS = 64;
+    private static final int ALLOWED_ACTIONS = 5;
+    private static final Duration WINDOW = Duration.ofMillis(50);
+    private static final long RUN_MILLIS = 2_000;
+
+    private static final Object[] identifiers = new Object[KEYS];
+    private static final Consumer<Integer> onSuccess = remaining -> {};
+    private static final Consumer<Duration> onFail = retry -> {};
+
+    static {
+        for (int i = 0; i < KEYS; i++) {
+            identifiers[i] = "10.0.0." + i;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%-32s %8s %16s%n", "Limiter", "Threads", "Calls/second");
+
+        // Warm both paths up before measuring anything
+        runSingleThreaded();
+        run(4, false);
+        run(4, true);
+
+        System.out.printf("%-32s %8d %,16d%n", "RateLimitedActions", 1, runSingleThreaded());
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors() * 2; threads *= 2) {
+            System.out.printf("%-32s %8d %,16d%n", "Concurrent (sliding log)", threads, run(threads, false));
+            System.out.printf("%-32s %8d %,16d%n", "Concurrent (smoothed)", threads, run(threads, true));
+        }
+    }
+
+    private static long runSingleThreaded() {
+        long calls = 0;
+        long end = System.currentTimeMillis() + RUN_MILLIS;
+        while (System.currentTimeMillis() < end) {
+            // The single-threaded limiter runs off the tick clock, so advance it the way the game thread would
+            Processing.currentInstant = Instant.now();
+            for (int i = 0; i < 1024; i++) {
+                RateLimitedActions.processAction(identifiers[i & (KEYS - 1)], ALLOWED_ACTIONS, WINDOW, onSuccess, onFail);
+            }
+            calls += 1024;
+        }
+        return calls * 1000 / RUN_MILLIS;
+    }
+
+    private static long run(int threadCount, boolean smoothed) throws InterruptedException {
+        LongAdder calls = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int offset = t * 7;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long end = System.currentTimeMillis() + RUN_MILLIS;
+                long local = 0;
+                int i = offset;
+                while (System.currentTimeMillis() < end) {
+                    for (int batch = 0; batch < 1024; batch++, i++) {
+                        Object identifier = identifiers[i & (KEYS - 1)];
+                        if (smoothed) {
+                            ConcurrentRateLimitedActions.processSmoothedAction(identifier, ALLOWED_ACTIONS, WINDOW, onSuccess, onFail);
+                        } else {
+                            ConcurrentRateLimitedActions.processAction(identifier, ALLOWED_ACTIONS, WINDOW, onSuccess, onFail);
+                        }
+                    }
+                    local += 1024;
+                }
+                calls.add(local);
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return calls.sum() * 1000 / RUN_MILLIS;
+    }
+}
@@ -0,0 +1,97 @@
+package server.util.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A uniform random sample of at most {@code capacity} values from a stream of any length (Algorithm R), for statistics
+ * that need raw values rather than a histogram.
+ */
+class ReservoirSample {
+
+    private final long[] values;
+    private final SplittableRandom random;
+    private int size;
+    private long seen;
+
+    ReservoirSample(int capacity, long seed) {
+        this.values = new long[capacity];
+        this.random = new SplittableRandom(seed);
+    }
+
+    void add(long value) {
+        seen++;
+        if (size < values.length) {
+            values[size++] = value;
+        } else {
+            long slot = random.nextLong(seen);
+            if (slot < values.length) {
+                values[(int) slot] = value;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    void reset() {
+        size = 0;
+        seen = 0;
+    }
+
+    /**
+     * @return The median of the first {@code length} values, reordering them
+     */
+    static double median(long[] values, int length) {
+        int middle = length / 2;
+        long upper = select(values, length, middle);
+        if (length % 2 == 1) {
+            return upper;
+        }
+        // After selecting, everything below middle is no greater than it
+        long lower = values[0];
+        for (int i = 1; i < middle; i++) {
+            lower = Math.max(lower, values[i]);
+        }
+        return (lower + upper) / 2.0;
+    }
+
+    // Quickselect: partially orders values so that values[k] is the k-th smallest
+    private static long select(long[] values, int length, int k) {
+        int left = 0;
+        int right = length - 1;
+        while (left < right) {
+            long pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+}
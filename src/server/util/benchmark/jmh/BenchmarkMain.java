@@ -0,0 +1,20 @@
+package server.util.benchmark.jmh;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark in this package, or only those matching the first argument, e.g. {@code RateLimited}.
+ * Needs jmh-core and jmh-generator-annprocess on the classpath, with annotation processing enabled.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "";
+        Options options = new OptionsBuilder()
+            .include(BenchmarkMain.class.getPackageName() + ".*" + include)
+            .build();
+        new Runner(options).run();
+    }
+}
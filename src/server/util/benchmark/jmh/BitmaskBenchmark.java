@@ -0,0 +1,67 @@
+package server.util.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.util.bitmask.Bitmask;
+import server.util.bitmask.BitmaskField;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BitmaskBenchmark {
+
+    public static class Flags {
+        @BitmaskField(blockSize = 8)
+        public int id = 42;
+
+        @BitmaskField(blockSize = 6)
+        public int age = 25;
+
+        @BitmaskField
+        public boolean isDev = true;
+
+        @BitmaskField
+        public boolean[] flags = new boolean[]{true, true, false};
+
+        @BitmaskField(blockSize = 3)
+        public int[] nums = new int[]{7, 3, 1};
+    }
+
+    // Varying the mask keeps the JIT from specializing applyMask to one constant
+    @Param({"0", "12345", "2147483647"})
+    public int mask;
+
+    private Bitmask<Flags> bitmask;
+    private Flags flags;
+
+    @Setup
+    public void setup() {
+        bitmask = new Bitmask<>(Flags.class);
+        flags = new Flags();
+    }
+
+    @Benchmark
+    public int createMask() {
+        return bitmask.createMask(flags);
+    }
+
+    @Benchmark
+    public Flags applyMask() {
+        bitmask.applyMask(flags, mask);
+        return flags;
+    }
+}
@@ -0,0 +1,71 @@
+package server.util.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.world.bounding.WorldArea;
+import server.world.bounding.impl.composite.WorldComposite;
+import server.world.bounding.impl.rectangle.Column;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Containment checks over a fixed set of random points, a mix of hits and misses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BoundingBenchmark {
+
+    private static final int POINTS = 1024;
+
+    @Param({"1", "8", "64"})
+    public int children;
+
+    private Column column;
+    private WorldComposite composite;
+    private final int[] xs = new int[POINTS];
+    private final int[] ys = new int[POINTS];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        column = new Column(3200, 3200, 3263, 3263);
+        WorldArea[] areas = new WorldArea[children];
+        for (int i = 0; i < children; i++) {
+            int x = 3000 + random.nextInt(500);
+            int y = 3000 + random.nextInt(500);
+            areas[i] = new Column(x, y, x + 16 + random.nextInt(48), y + 16 + random.nextInt(48));
+        }
+        composite = new WorldComposite(areas);
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = 3000 + random.nextInt(600);
+            ys[i] = 3000 + random.nextInt(600);
+        }
+    }
+
+    @Benchmark
+    public boolean columnContains() {
+        int i = next++ & (POINTS - 1);
+        return column.contains(xs[i], ys[i]);
+    }
+
+    @Benchmark
+    public boolean compositeContains() {
+        int i = next++ & (POINTS - 1);
+        return composite.contains(xs[i], ys[i]);
+    }
+}
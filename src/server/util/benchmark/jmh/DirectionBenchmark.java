@@ -0,0 +1,51 @@
+package server.util.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.util.walking.Direction;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DirectionBenchmark {
+
+    private static final int DELTAS = 1024;
+
+    // How far apart the endpoints can be; 1 means every delta is already a single step
+    @Param({"1", "16"})
+    public int spread;
+
+    private final int[] dxs = new int[DELTAS];
+    private final int[] dys = new int[DELTAS];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < DELTAS; i++) {
+            dxs[i] = random.nextInt(spread * 2 + 1) - spread;
+            dys[i] = random.nextInt(spread * 2 + 1) - spread;
+        }
+    }
+
+    @Benchmark
+    public Direction from() {
+        int i = next++ & (DELTAS - 1);
+        return Direction.from(3200, 3200, 3200 + dxs[i], 3200 + dys[i]);
+    }
+}
@@ -0,0 +1,102 @@
+package server.util.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.model.npcs.instances.Instance;
+import server.model.npcs.instances.InstanceId;
+import server.model.npcs.instances.InstanceManager;
+import server.model.npcs.instances.InstanceType;
+import server.model.players.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the instance of a player, cycling through every participant as well as players who aren't in any instance,
+ * which is the worst case since every instance has to be checked.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InstanceManagerBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int instances;
+
+    @Param({"1", "5"})
+    public int participantsPerInstance;
+
+    private final List<Instance> created = new ArrayList<>();
+    private Player[] participants;
+    private Player[] outsiders;
+    private int next;
+
+    @Setup
+    public void setup() {
+        participants = new Player[instances * participantsPerInstance];
+        outsiders = new Player[64];
+        int playerId = 1;
+        for (int i = 0; i < instances; i++) {
+            Player owner = new Player(playerId++);
+            participants[i * participantsPerInstance] = owner;
+            Instance instance = new BenchmarkInstance(owner, i + 1);
+            for (int j = 1; j < participantsPerInstance; j++) {
+                Player member = new Player(playerId++);
+                instance.addParticipant(member);
+                participants[i * participantsPerInstance + j] = member;
+            }
+            created.add(instance);
+        }
+        for (int i = 0; i < outsiders.length; i++) {
+            outsiders[i] = new Player(playerId++);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        // Straight out of the set; removeInstance would message and teleport the fake players
+        InstanceManager.instances.removeAll(created);
+        created.clear();
+    }
+
+    @Benchmark
+    public Instance getInstanceOfParticipant() {
+        Player player = participants[next];
+        next = next + 1 == participants.length ? 0 : next + 1;
+        return InstanceManager.getInstance(player);
+    }
+
+    @Benchmark
+    public Instance getInstanceOfOutsider() {
+        return InstanceManager.getInstance(outsiders[next++ & (outsiders.length - 1)]);
+    }
+
+    // A bare instance, so the lookup is measured without spawning anything
+    private static final class BenchmarkInstance extends Instance {
+        private BenchmarkInstance(Player owner, int heightLevel) {
+            super(owner, InstanceId.PURO_PURO, InstanceType.PRIVATE, heightLevel * 4);
+        }
+
+        @Override
+        public void teleportInside(Player p) {
+        }
+
+        @Override
+        public void spawn() {
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package server.util.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import server.Processing;
+import server.util.RateLimitedActions;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One call per invocation, cycling through {@code keys} identifiers so the map size and the cache behaviour scale with
+ * the parameter. The clock advances a millisecond per call, so both admits and rejects are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RateLimitedActionsBenchmark {
+
+    private static final Duration WINDOW = Duration.ofMillis(100);
+
+    @Param({"1", "1000", "100000"})
+    public int keys;
+
+    private String[] identifiers;
+    private int next;
+    private long now;
+    private Consumer<Integer> onSuccess;
+    private Consumer<Duration> onFail;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        identifiers = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            identifiers[i] = "player" + i;
+        }
+        now = System.currentTimeMillis();
+        onSuccess = blackhole::consume;
+        onFail = blackhole::consume;
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (String identifier : identifiers) {
+            RateLimitedActions.resetActions(identifier);
+        }
+    }
+
+    @Benchmark
+    public boolean processAction() {
+        Processing.currentInstant = Instant.ofEpochMilli(now++);
+        String identifier = identifiers[next];
+        next = next + 1 == keys ? 0 : next + 1;
+        return RateLimitedActions.processAction(identifier, 3, WINDOW, onSuccess, onFail);
+    }
+
+    @Benchmark
+    public boolean processSmoothedAction() {
+        Processing.currentInstant = Instant.ofEpochMilli(now++);
+        String identifier = identifiers[next];
+        next = next + 1 == keys ? 0 : next + 1;
+        return RateLimitedActions.processSmoothedAction(identifier, 3, WINDOW, onSuccess, onFail);
+    }
+}
@@ -0,0 +1,81 @@
+package server.util.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.Processing;
+import server.util.TaskScheduler;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of one game tick of {@link TaskScheduler#process()} with {@code tasks} recurring tasks registered, most of
+ * which aren't due. Each invocation advances the clock by one 600ms tick.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TaskSchedulerBenchmark {
+
+    private static final Duration TICK = Duration.ofMillis(600);
+
+    @Param({"100", "10000", "100000"})
+    public int tasks;
+
+    private final List<TaskScheduler.ScheduledTask> scheduled = new ArrayList<>();
+    private ZonedDateTime now;
+    private long runs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        now = ZonedDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        Processing.utcDateTime = now;
+        Processing.currentInstant = now.toInstant();
+        for (int i = 0; i < tasks; i++) {
+            // A spread of intervals from one tick to ten minutes, with staggered starts
+            Duration interval = TICK.multipliedBy(1 + random.nextInt(1000));
+            ZonedDateTime start = now.plus(TICK.multipliedBy(random.nextInt(1000)));
+            scheduled.add(TaskScheduler.scheduleTask(start, interval, () -> runs++));
+        }
+        // Registration is handed over through the scheduler's inbox, so drain it before measuring
+        TaskScheduler.process();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (TaskScheduler.ScheduledTask task : scheduled) {
+            task.cancel();
+        }
+        TaskScheduler.process();
+        scheduled.clear();
+    }
+
+    @Benchmark
+    public long process() {
+        now = now.plus(TICK);
+        Processing.utcDateTime = now;
+        Processing.currentInstant = now.toInstant();
+        TaskScheduler.process();
+        return runs;
+    }
+}